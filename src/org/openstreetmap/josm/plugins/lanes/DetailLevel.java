@@ -0,0 +1,40 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/*
+ * DetailLevel - how much of each road is drawn at the current zoom.
+ *
+ * -> FAR: each road is a single simplified line, coloured by its number of lanes.  No intersections or markings.
+ * -> MID: asphalt and dividers, drawn from geometry simplified for this level.  No markings.
+ * -> CLOSE: everything, with full geometry.
+ * -> Levels are picked by map scale (meters per pixel), switching at "lanes.lod.close" and "lanes.lod.far".
+ * -> Each level simplifies by about half a pixel at the closest zoom it's used at, so the simplified geometry
+ *    can be calculated once per level instead of once per zoom.
+ */
+
+enum DetailLevel {
+    FAR, MID, CLOSE;
+
+    private static final double CLOSE_SCALE = Config.getPref().getDouble("lanes.lod.close", 0.5);
+    private static final double FAR_SCALE = Config.getPref().getDouble("lanes.lod.far", 4);
+
+    static DetailLevel of(double scale) {
+        if (scale <= CLOSE_SCALE) return CLOSE;
+        return scale <= FAR_SCALE ? MID : FAR;
+    }
+
+    // Distance in meters geometry drawn at this level may be simplified by, 0 for none.
+    double tolerance() {
+        switch (this) {
+            case FAR: return FAR_SCALE / 2;
+            case MID: return CLOSE_SCALE / 2;
+            default: return 0;
+        }
+    }
+
+    // Distance in EastNorth units around the screen to look for renderers in, enough for the widest road drawn there.
+    static double cushion(double scale) {
+        return Math.max(50, 20 * scale);
+    }
+}
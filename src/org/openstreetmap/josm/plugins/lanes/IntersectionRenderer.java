@@ -1,6 +1,7 @@
 package org.openstreetmap.josm.plugins.lanes;
 
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.Way;
@@ -8,15 +9,22 @@ import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
 
 import java.awt.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
 public class IntersectionRenderer {
     protected MapView _mv;
-    protected LaneMappingMode _m;
+    protected RendererSet _set;
 
     protected Way _outline;
     protected Way _lowResOutline; // For overlap between intersections only.
@@ -38,16 +46,31 @@ public class IntersectionRenderer {
     protected List<Double> _rightBearings;
     protected List<Double> _leftBearings;
     protected List<Way> _roadMarkings;
-    protected List<Way> _roadMarkingsSimplified;
+
+    // Outline (first) and road markings, simplified for the last few zoom buckets they were drawn at.
+    private static final int ZOOM_BUCKETS_KEPT = 4;
+    private final Map<Integer, List<Way>> _simplified = new LinkedHashMap<Integer, List<Way>>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Way>> eldest) { return size() > ZOOM_BUCKETS_KEPT; }
+    };
+
+    // Max distance in meters between a corner's bezier curve and the outline made from it.  Well under a pixel when
+    // zoomed in enough to see the curb, and straight backbones come out as a single line.
+    private static final double CURVE_TOLERANCE = 0.02;
+
+    // Gaps this intersection cuts out of each road (by way id), in meters along its alignment.  RendererSet applies
+    // them to the roads once every intersection on them is built, so drawing doesn't depend on what's built first.
+    private final Map<Long, List<double[]>> _gaps = new HashMap<>();
 
     private List<IntersectionGraphSegment> _internalGraph; // Internal graph structure, used for routing between nodes.
+    private final Map<Long, Map<Integer, IntersectionGraphSegment>> _graphIndex = new HashMap<>(); // Way id -> first node of a way segment -> graph segment containing it.
     private List<Long> _nodeIds; // List of uniqueIds of nodes in intersections within the renderer.
     private LatLon _pos;
 
 
-    public IntersectionRenderer(List<Long> nodeIds, List<IntersectionRenderer> addToThis, MapView mv, LaneMappingMode m) {
+    public IntersectionRenderer(List<Long> nodeIds, List<IntersectionRenderer> addToThis, MapView mv, RendererSet set) {
         _mv = mv;
-        _m = m;
+        _set = set;
         _toBeTrimmed = new ArrayList<>();
 
         _internalGraph = new ArrayList<>();
@@ -55,15 +78,8 @@ public class IntersectionRenderer {
         _nodeIds = new ArrayList<>();
         _nodeIds.addAll(nodeIds);
 
-        List<Long> nodeIdsCopy = new ArrayList<>();
-        nodeIdsCopy.addAll(nodeIds);
-
-        // Get _wayVectors and _internalGraph:
-        explore((Node) MainApplication.getLayerManager().getEditDataSet().getPrimitiveById(nodeIds.get(0), OsmPrimitiveType.NODE),
-                new HashSet<>(), nodeIdsCopy, _internalGraph, _wayVectors, 0);
-
-        // If there are still remaining nodes that weren't part of this intersection, create a new one with them.
-        if (nodeIdsCopy.size() != 0) new IntersectionRenderer(nodeIdsCopy, addToThis, mv, m);
+        // Get _wayVectors and _internalGraph.  Nodes that can't be reached were split off by splitGroup() already.
+        explore((Node) MainApplication.getLayerManager().getEditDataSet().getPrimitiveById(nodeIds.get(0), OsmPrimitiveType.NODE));
 
         _trimWays = true;
         createIntersectionLayout();
@@ -88,8 +104,6 @@ public class IntersectionRenderer {
 
 
 
-    protected double meters100PixLastRender = -1; // for knowing if the zoom has been changed since last render.
-
     protected boolean _isValid = true;
 
     protected void createIntersectionLayout() { // Minor data change, reset intersection layout, assume same road graph
@@ -110,7 +124,8 @@ public class IntersectionRenderer {
         _rightBearings = new ArrayList<>();
         _leftBearings = new ArrayList<>();
 
-        _roadMarkingsSimplified = null; // Must be reset to null every time data changes.
+        _simplified.clear(); // Must be cleared every time data changes.
+        _gaps.clear();
 
 
         // Get useful info about this intersection.
@@ -128,19 +143,15 @@ public class IntersectionRenderer {
         for (int i = 0; i < _wayVectors.size(); i++) {
             // Get way at i right road edge (right going out from intersection, left going in)
             WayVector ith = _wayVectors.get(i);
-            RoadRenderer ithrr = _m.wayIdToRSR.get(ith.getParent().getUniqueId());
-            Way rightSubPart = UtilsSpatial.getSubPart(ith.isForward() ? ithrr.getEdge(-1, true) : ithrr.getEdge(-1, false),
-                    ith.isForward() ? Math.min(ith.getFrom(), ith.getTo()) : 0,
-                    ith.isForward() ? ithrr.getWay().getNodesCount()-1 : Math.max(ith.getFrom(), ith.getTo()));
+            RoadRenderer ithrr = _set.wayIdToRSR.get(ith.getParent().getUniqueId());
+            Way rightSubPart = ithrr.getEdgeLineNear(ith.getFrom(), ith.isForward(), ith.isForward()).toWay();
             Way rightEdge = (ith.isForward() ? rightSubPart : UtilsSpatial.reverseNodes(rightSubPart));
             _edges.add(rightEdge);
 
             // Get way at i+1 left road edge (left going out from intersection, right going in)
             WayVector ipoth = _wayVectors.get((i == _wayVectors.size() - 1) ? 0 : i + 1);
-            RoadRenderer ipothrr = _m.wayIdToRSR.get(ipoth.getParent().getUniqueId());
-            Way leftSubPart = UtilsSpatial.getSubPart(ipoth.isForward() ? ipothrr.getEdge(-1, false) : ipothrr.getEdge(-1, true),
-                    ipoth.isForward() ? Math.min(ipoth.getFrom(), ipoth.getTo()) : 0,
-                    ipoth.isForward() ? ipothrr.getWay().getNodesCount()-1 : Math.max(ipoth.getFrom(), ipoth.getTo()));
+            RoadRenderer ipothrr = _set.wayIdToRSR.get(ipoth.getParent().getUniqueId());
+            Way leftSubPart = ipothrr.getEdgeLineNear(ipoth.getFrom(), ipoth.isForward(), !ipoth.isForward()).toWay();
             Way leftEdge = (ipoth.isForward() ? leftSubPart : UtilsSpatial.reverseNodes(leftSubPart));
             _edges.add(leftEdge);
 
@@ -221,21 +232,17 @@ public class IntersectionRenderer {
 
             // Find intersect between the cross section and the alignment to find out how far into the alignment the cross sections go.
             double[] distances = new double[2];
-            RoadRenderer rr = _m.wayIdToRSR.get(_wayVectors.get(i).getParent().getUniqueId());
-            Way alignment = rr.getAlignment();
-            List<Node> alignmentNodesNoNull = new ArrayList<>();
-            for (Node n : alignment.getNodes()) if (n != null && n.getCoor() != null) alignmentNodesNoNull.add(n);
-            Way newAlignment = new Way();
-            newAlignment.setNodes(alignmentNodesNoNull);
-            LatLon l = UtilsSpatial.intersect(UtilsSpatial.extendWay(newAlignment, false, 100), crossSection,
+            RoadRenderer rr = _set.wayIdToRSR.get(_wayVectors.get(i).getParent().getUniqueId());
+            Polyline alignment = rr.getAlignmentLine();
+            LatLon l = UtilsSpatial.intersect(alignment.extend(false, 100), Polyline.of(crossSection),
                     distances, false, 0, false, false);
             if (l == null) { // If the intersect failed, then the alignment isn't between the edges (aka placement=left_of:10).
                 crossSection = UtilsSpatial.extendWay(UtilsSpatial.extendWay(crossSection, true, 30), false, 30);
-                l = UtilsSpatial.intersect(newAlignment, crossSection, distances, false, 0,false, false);
+                l = UtilsSpatial.intersect(alignment, Polyline.of(crossSection), distances, false, 0,false, false);
             }
             if (l == null) {
                 double distIntoAlignment = (rightSideSetBack.getLength()+leftSideSetBack.getLength())/2;
-                double distIntersection = UtilsSpatial.getSubPart(alignment, 0, _wayVectors.get(i).getFrom()).getLength();
+                double distIntersection = UtilsSpatial.nodeIdToDist(alignment, _wayVectors.get(i).getFrom());
                 distances[0] = distIntersection + (_wayVectors.get(i).isForward() ? 1 : -1)*distIntoAlignment;
                 if (distances[0] < 0) distances[0] = 0;
                 if (distances[0] > alignment.getLength()) distances[0] = alignment.getLength();
@@ -243,9 +250,9 @@ public class IntersectionRenderer {
             // Replace final nodes of the setBacks with properly parallel nodes and add gap to RoadRenderer
             // Get a "better" crossSection, which is always perpendicular to the way.
             double percent = distances[0] / alignment.getLength();
-            LatLon left = UtilsSpatial.getParallelPoint(newAlignment, distances[0],
+            LatLon left = UtilsSpatial.getParallelPoint(alignment, distances[0],
                     percent * rr.sideWidth(false, true) + (1 - percent) * rr.sideWidth(true, true));
-            LatLon right = UtilsSpatial.getParallelPoint(newAlignment, distances[0],
+            LatLon right = UtilsSpatial.getParallelPoint(alignment, distances[0],
                     -percent * rr.sideWidth(false, false) - (1 - percent) * rr.sideWidth(true, false));
             if (!_wayVectors.get(i).isForward()) { LatLon temp = left; left = right; right = temp; }
             Way betterCrossSection = new Way();
@@ -302,8 +309,8 @@ public class IntersectionRenderer {
             }
 
             // Stop the RoadRenderer from rendering at the intersection.
-            double distCenter = _wayVectors.get(i).getFrom() == 0 ? 0.0 : UtilsSpatial.getSubPart(rr.getAlignment(), 0, _wayVectors.get(i).getFrom()).getLength();
-            if (_trimWays) rr.addRenderingGap(distCenter, distances[0]);
+            double distCenter = UtilsSpatial.nodeIdToDist(alignment, _wayVectors.get(i).getFrom());
+            if (_trimWays) addRenderingGap(rr, distCenter, distances[0]);
 //            new Thread(() -> JOptionPane.showMessageDialog(MainApplication.getMainFrame(),
 //                    "added gap, from " + distCenter + " to " + distances[0] + " on len " + rr.getAlignment().getLength())).start();
             _setBacks.add(leftSideSetBack);
@@ -359,11 +366,10 @@ public class IntersectionRenderer {
                 if (bezierNodes.size() == 0 || bezierNodes.size() > 20) continue;
 
                 // Generate curve
-                int nodes = 60;
                 int nodesLowRes = 2;
                 List<Node> curve = new ArrayList<>();
                 List<Node> curveLowRes = new ArrayList<>();
-                for (int j = 0; j <= nodes; j++) curve.add(new Node(UtilsSpatial.bezier(j*1.0/nodes, bezierNodes)));
+                for (LatLon ll : UtilsSpatial.bezierCurve(bezierNodes, CURVE_TOLERANCE)) curve.add(new Node(ll));
                 for (int j = 0; j <= nodesLowRes; j++) curveLowRes.add(new Node(UtilsSpatial.bezier(j*1.0/nodesLowRes, bezierNodes)));
 
                 outlineNodes.addAll(curve);
@@ -392,46 +398,48 @@ public class IntersectionRenderer {
 
         // Trim roads assigned to be trimmed by child class:
         for (WayVector w : _toBeTrimmed) {
-            _m.wayIdToRSR.get(w.getParent().getUniqueId()).addRenderingGap(w.getFrom(), w.getTo());
+            RoadRenderer rr = _set.wayIdToRSR.get(w.getParent().getUniqueId());
+            Polyline alignment = rr.getAlignmentLine();
+            addRenderingGap(rr, UtilsSpatial.nodeIdToDist(alignment, w.getFrom()), UtilsSpatial.nodeIdToDist(alignment, w.getTo()));
         }
     }
 
     public void render(Graphics2D g) {
         try {
+            List<Way> simplified = getSimplified();
+
             // Fill in asphalt.
-            UtilsRender.drawOnMap(g, _mv, _outline, UtilsRender.DEFAULT_ASPHALT_COLOR,
+            UtilsRender.drawOnMap(g, _mv, simplified.get(0), UtilsRender.DEFAULT_ASPHALT_COLOR,
                     null, 1, true, false, false);
 
             // Draw road lines:
-            double ratio = meters100PixLastRender/_mv.getDist100Pixel();
-            boolean simplify = false;
-            boolean mustUpdate = false;
-
-            if (_roadMarkingsSimplified == null) {
-                _roadMarkingsSimplified = new ArrayList<>();
-                for (int i = 0; i < _roadMarkings.size(); i++) _roadMarkingsSimplified.add(new Way());
-                mustUpdate = true;
-            }
-
-            if (ratio > 1.5 || ratio < 0.75 || mustUpdate) {
-                simplify = true;
-                for (int i = 0; i < _roadMarkingsSimplified.size(); i++) {
-                    _roadMarkingsSimplified.get(i).setNodes(_roadMarkings.get(i).getNodes());
-                }
-                meters100PixLastRender = _mv.getDist100Pixel();
-            }
-            for (Way w : _roadMarkingsSimplified) {
-                UtilsRender.drawOnMap(g, _mv, w, UtilsRender.DEFAULT_UNTAGGED_ROADEDGE_COLOR,
-                        null, 0.125F, false, true, simplify);
+            for (int i = 1; i < simplified.size(); i++) {
+                if (simplified.get(i) == null) continue;
+                UtilsRender.drawOnMap(g, _mv, simplified.get(i), UtilsRender.DEFAULT_UNTAGGED_ROADEDGE_COLOR,
+                        null, 0.125F, false, true, false);
             }
 //
 //            for (long nodeid : getNodeIntersections()) {
-//                Way lowresoutline = _m.nodeIntersections.get(nodeid);
+//                Way lowresoutline = _set.nodeIntersections.get(nodeid);
 //                UtilsRender.drawOnMap(g, _mv, lowresoutline, Color.RED, null, 1.0F, false, true, false);
 //            }
         } catch (Exception ignored) {}
     }
 
+    // Zoom buckets are half an octave of getDist100Pixel() wide, simplified for the closest zoom in the bucket.
+    private List<Way> getSimplified() {
+        int bucket = (int) Math.floor(2 * Math.log(_mv.getDist100Pixel()) / Math.log(2));
+        List<Way> output = _simplified.get(bucket);
+        if (output == null) {
+            double dist100Pixel = Math.pow(2, bucket / 2.0);
+            output = new ArrayList<>();
+            output.add(UtilsRender.simplify(_outline, dist100Pixel));
+            for (Way w : _roadMarkings) output.add(w == null ? null : UtilsRender.simplify(w, dist100Pixel));
+            _simplified.put(bucket, output);
+        }
+        return output;
+    }
+
     public void updateAlignment() {
         // One of the child way's tags was just changed.  Update shape:
         try {
@@ -445,7 +453,7 @@ public class IntersectionRenderer {
             IntersectionGraphSegment igs = igsList.get(j);
             for (int k = 0; k < igs.wayVectors().size(); k++) { // This runs for each wayVector in the graphSegment (runs just one time 99% of the time)
                 WayVector wv = igs.wayVectors().get(k);
-                RoadRenderer parallelRR = _m.wayIdToRSR.get(wv.getParent().getUniqueId());
+                RoadRenderer parallelRR = _set.wayIdToRSR.get(wv.getParent().getUniqueId());
                 Way parallel = wv.isForward() ? parallelRR.getEdge(-1, false) : parallelRR.getEdge(-1, true);
                 List<Node> parallelSubPart = new ArrayList<>();
 //                for (int l = wv.getFrom(); wv.isForward() ? (l <= wv.getTo()) : (l >= wv.getTo()); l += (wv.isForward()?1:-1)) { // Runs for each node in the wayVector(1-2 times 95% of the time)
@@ -466,79 +474,135 @@ public class IntersectionRenderer {
 
 
 
-    private void explore(Node currentNode, Set<Long> exploredNodes, List<Long> space,
-                         List<IntersectionGraphSegment> exploredWays, List<WayVector> wayVectors, double bearing) {
-        // Explores all wayVectors leading out of a single-node.
-        // Recursive, used to find internal road network.
-        exploredNodes.add(currentNode.getUniqueId());
-        space.remove(currentNode.getUniqueId());
-        List<WayVector> ways = UtilsSpatial.getWaysFromNode(currentNode, _m, bearing);
-        for (WayVector w : ways) {
-            // If this connection has already been explored, quit now.
-            boolean explored = false;
-            for (IntersectionGraphSegment i : exploredWays) {
-                if (i.containsWaySegment(w)) {
-                    explored = true;
-                    break;
+    private static final class ExploreStep {
+        private final List<WayVector> _ways; // Every way vector out of the node, clockwise from where it was entered.
+        private int _next = 0;
+        private final List<WayVector> _trimWhenDone; // Route used to get to the node, trimmed once it's explored.
+
+        private ExploreStep(List<WayVector> ways, List<WayVector> trimWhenDone) {
+            _ways = ways;
+            _trimWhenDone = trimWhenDone;
+        }
+    }
+
+    /**
+     * Splits a group of overlapping node-only intersections into the parts explore() can get between, so each part
+     * can be built as its own IntersectionRenderer (and in parallel with the others).
+     * @return The node ids to build each part with: the nodes of the part and of the parts after it (so roads into
+     *         those still get trimmed), in the input order.  The first one is the one explore() starts from.
+     */
+    static List<List<Long>> splitGroup(List<Long> nodeIds, RendererSet set) {
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        List<List<Long>> parts = new ArrayList<>();
+        Set<Long> remaining = new LinkedHashSet<>(nodeIds);
+        while (!remaining.isEmpty()) {
+            // Same nodes explore() would reach from the first remaining node, only looking at the remaining nodes.
+            List<Long> part = new ArrayList<>();
+            part.add(remaining.iterator().next());
+            remaining.remove(part.get(0));
+            try {
+                for (int i = 0; i < part.size(); i++) {
+                    Node n = (Node) ds.getPrimitiveById(part.get(i), OsmPrimitiveType.NODE);
+                    for (WayVector w : UtilsSpatial.getWaysFromNode(n, set)) {
+                        List<WayVector> route = walkRoute(w, set);
+                        WayVector endVector = route.get(route.size()-1);
+                        long end = endVector.getParent().getNode(endVector.getTo()).getUniqueId();
+                        if (!route.get(0).getParent().hasTag("in_a_junction", "no") && remaining.remove(end)) part.add(end);
+                    }
                 }
+            } catch (Exception e) {
+                // Building fails the same way, so leave the rest together like they would have been.
+                part.addAll(remaining);
+                remaining.clear();
             }
-            if (explored) continue;
+            parts.add(part);
+        }
 
+        List<List<Long>> output = new ArrayList<>();
+        Set<Long> later = new HashSet<>();
+        for (int i = parts.size()-1; i >= 0; i--) {
+            later.addAll(parts.get(i));
+            List<Long> ids = new ArrayList<>();
+            for (long id : nodeIds) if (later.contains(id)) ids.add(id);
+            output.add(0, ids);
+        }
+        return output;
+    }
 
-            // Explore this segment:
-            WayVector wayVector = w;
-            List<WayVector> routeSoFar = new ArrayList<>();
-            boolean keepgoing = true;
-            double distSoFar = 0;
-
-            while(keepgoing) { // Runs for each way between two nodes of intersection.  Should run just one time in most cases.
-
-                Way way = wayVector.getParent();
-                int dir = wayVector.isForward() ? 1 : -1;
-                int pos = wayVector.getFrom();
-
-                for (int i = pos+dir; dir > 0 ? i < way.getNodesCount() : i >= 0; i += dir) {
-                    distSoFar += way.getNode(i-dir).getCoor().greatCircleDistance(way.getNode(i).getCoor());
-                    if (UtilsSpatial.numRoadsFromNode(way.getNode(i), _m) != 2 || distSoFar > 100) {
-                        routeSoFar.add(new WayVector(pos, i, way));
-                        keepgoing = false;
-                        break;
-                    }
+    // Route from w along the road until a node where it isn't just two roads meeting, or until 100 meters.
+    private static List<WayVector> walkRoute(WayVector w, RendererSet set) {
+        WayVector wayVector = w;
+        List<WayVector> routeSoFar = new ArrayList<>();
+        boolean keepgoing = true;
+        double distSoFar = 0;
 
-                    if ((dir == -1 && i == 0) || (dir == 1 && i == way.getNodesCount()-1)) {
-                        // Reached end, hop on to other road and continue.
-                        routeSoFar.add(new WayVector(pos, i, way));
+        while(keepgoing) { // Runs for each way between two nodes of intersection.  Should run just one time in most cases.
 
-                        List<WayVector> allWayVectorsFromHere = UtilsSpatial.getWaysFromNode(way.getNode(i), _m);
-                        wayVector = allWayVectorsFromHere.get(0).getParent().getUniqueId() == way.getUniqueId() ? allWayVectorsFromHere.get(1) : allWayVectorsFromHere.get(0);
-                        break;
-                    }
+            Way way = wayVector.getParent();
+            int dir = wayVector.isForward() ? 1 : -1;
+            int pos = wayVector.getFrom();
+
+            for (int i = pos+dir; dir > 0 ? i < way.getNodesCount() : i >= 0; i += dir) {
+                distSoFar += way.getNode(i-dir).getCoor().greatCircleDistance(way.getNode(i).getCoor());
+                if (UtilsSpatial.numRoadsFromNode(way.getNode(i), set) != 2 || distSoFar > 100) {
+                    routeSoFar.add(new WayVector(pos, i, way));
+                    keepgoing = false;
+                    break;
                 }
+
+                if ((dir == -1 && i == 0) || (dir == 1 && i == way.getNodesCount()-1)) {
+                    // Reached end, hop on to other road and continue.
+                    routeSoFar.add(new WayVector(pos, i, way));
+
+                    List<WayVector> allWayVectorsFromHere = UtilsSpatial.getWaysFromNode(way.getNode(i), set);
+                    wayVector = allWayVectorsFromHere.get(0).getParent().getUniqueId() == way.getUniqueId() ? allWayVectorsFromHere.get(1) : allWayVectorsFromHere.get(0);
+                    break;
+                }
+            }
+        }
+        return routeSoFar;
+    }
+
+    private void explore(Node start) {
+        // Explores all wayVectors leading out of start, and out of every node of this intersection reached from there.
+        // Used to find internal road network.  Depth first, with its own stack so big interchanges can't overflow it.
+        Set<Long> nodeIds = new HashSet<>(_nodeIds);
+        Set<Long> exploredNodes = new HashSet<>();
+        Deque<ExploreStep> stack = new ArrayDeque<>();
+        exploredNodes.add(start.getUniqueId());
+        stack.push(new ExploreStep(UtilsSpatial.getWaysFromNode(start, _set, 0), null));
+
+        while (!stack.isEmpty()) {
+            ExploreStep step = stack.peek();
+            if (step._next == step._ways.size()) {
+                stack.pop();
+                if (step._trimWhenDone != null) _toBeTrimmed.addAll(step._trimWhenDone);
+                continue;
             }
+            WayVector w = step._ways.get(step._next++);
+
+            // If this connection has already been explored, skip it.
+            if (graphSegmentContaining(w) != null) continue;
+
+            // Explore this segment:
+            List<WayVector> routeSoFar = walkRoute(w, _set);
 
             // If the intersection at the end is part of this intersection, explore out from it.
             WayVector endVector = routeSoFar.get(routeSoFar.size()-1);
             Node endNode = endVector.getParent().getNode(endVector.getTo());
-            Node endNodeRen = null;
-            boolean isPart = false;
+            boolean isPart = nodeIds.contains(endNode.getUniqueId());
             boolean nodeExplored = exploredNodes.contains(endNode.getUniqueId());
-            for (Long nodeId : _nodeIds) {
-                Node n = (Node) MainApplication.getLayerManager().getEditDataSet().getPrimitiveById(nodeId, OsmPrimitiveType.NODE);
-                if (endNode.getUniqueId() == n.getUniqueId()) {
-                    isPart = true;
-                    endNodeRen = n;
-                    break;
-                }
-            }
 
             // Mark as explored:
-            if (nodeExplored) exploredWays.add(new IntersectionGraphSegment(routeSoFar));
+            if (nodeExplored) addToInternalGraph(new IntersectionGraphSegment(routeSoFar));
             if (isPart && !nodeExplored && !routeSoFar.get(0).getParent().hasTag("in_a_junction", "no")) {
                 double thisBearing = endVector.getParent().getNode(endVector.getTo()).getCoor().bearing(
                         endVector.getParent().getNode(endVector.getTo() + (endVector.isForward() ? -1 : 1)).getCoor());
-                explore(endNodeRen, exploredNodes, space, exploredWays, wayVectors, thisBearing);
+                exploredNodes.add(endNode.getUniqueId());
+                stack.push(new ExploreStep(UtilsSpatial.getWaysFromNode(endNode, _set, thisBearing), routeSoFar));
+                continue;
             } else if (!nodeExplored) {
-                wayVectors.add(w);
+                _wayVectors.add(w);
             }
             if (isPart) {
                 _toBeTrimmed.addAll(routeSoFar);
@@ -546,6 +610,20 @@ public class IntersectionRenderer {
         }
     }
 
+    private void addToInternalGraph(IntersectionGraphSegment segment) {
+        _internalGraph.add(segment);
+        for (WayVector v : segment.wayVectors()) {
+            Map<Integer, IntersectionGraphSegment> segments = _graphIndex.computeIfAbsent(v.getParent().getUniqueId(), k -> new HashMap<>());
+            for (int i = Math.min(v.getFrom(), v.getTo()); i < Math.max(v.getFrom(), v.getTo()); i++) segments.putIfAbsent(i, segment);
+        }
+    }
+
+    // First segment of _internalGraph containing w, which must be a single way segment, or null if there isn't one.
+    private IntersectionGraphSegment graphSegmentContaining(WayVector w) {
+        Map<Integer, IntersectionGraphSegment> segments = _graphIndex.get(w.getParent().getUniqueId());
+        return segments == null ? null : segments.get(Math.min(w.getFrom(), w.getTo()));
+    }
+
 
     public List<List<IntersectionGraphSegment>> getPerimeter() {
         List<List<IntersectionGraphSegment>> out = new ArrayList<>();
@@ -557,20 +635,14 @@ public class IntersectionRenderer {
             for(int dontuse = 0; dontuse < 10; dontuse++) { // This loop should run two times 99% of the time, 3 times 0.99% of the time, 4 times 0.01% of the time.  Used to get to next wayVector.
                 // Rotate around this node:
                 double bearing = w.getParent().getNode(w.getFrom()).getCoor().bearing(w.getParent().getNode(w.getFrom() + (w.isForward() ? 1 : -1)).getCoor());
-                List<WayVector> vectors = UtilsSpatial.getWaysFromNode(n, _m, bearing);
+                List<WayVector> vectors = UtilsSpatial.getWaysFromNode(n, _set, bearing);
                 WayVector x = vectors.get(0);
                 WayVector next = _wayVectors.get(i == _wayVectors.size()-1 ? 0 : i+1);
                 if (next.contains(x)) break;
 
                 // Go to next node:
                 // Get graph segment that contains x:
-                IntersectionGraphSegment g = null;
-                for (IntersectionGraphSegment s : _internalGraph) {
-                    if (s.containsWaySegment(x)) {
-                        g = s;
-                        break;
-                    }
-                }
+                IntersectionGraphSegment g = graphSegmentContaining(x);
                 if (g == null) {
                     segments = new ArrayList<>();
                     break;
@@ -597,6 +669,24 @@ public class IntersectionRenderer {
 
     public List<Long> getNodeIntersections() { return _nodeIds; }
 
+    private void addRenderingGap(RoadRenderer rr, double from, double to) {
+        _gaps.computeIfAbsent(rr.getWay().getUniqueId(), k -> new ArrayList<>()).add(new double[] {from, to});
+    }
+
+    // Gaps this intersection cuts out of the road of way wayId, see RoadRenderer.setRenderingGaps().
+    public List<double[]> getRenderingGaps(long wayId) {
+        List<double[]> gaps = _gaps.get(wayId);
+        return gaps == null ? Collections.emptyList() : Collections.unmodifiableList(gaps);
+    }
+
+    // Unique ids of every way this intersection trims or connects to.
+    public Set<Long> getWayIds() {
+        Set<Long> output = new HashSet<>();
+        for (WayVector w : _wayVectors) output.add(w.getParent().getUniqueId());
+        for (WayVector w : _toBeTrimmed) output.add(w.getParent().getUniqueId());
+        return output;
+    }
+
 }
 
 
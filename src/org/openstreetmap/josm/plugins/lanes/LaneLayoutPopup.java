@@ -147,7 +147,7 @@ public class LaneLayoutPopup extends JPanel implements ActionListener {
      */
     void dataChange() {
         remove(layoutPanel);
-        _rr = _parent.wayIdToRSR.get(_rr.getWay().getUniqueId());
+        _rr = _parent.getRoadRenderer(_rr.getWay().getUniqueId());
         setLayoutPanel();
         add(layoutPanel, BorderLayout.CENTER);
         validate();
@@ -210,8 +210,12 @@ class RoadPanel extends JPanel {
 
         // Draw road
         ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Stroke stroke = ((Graphics2D) g).getStroke();
+        Color color = g.getColor();
         _rr.renderPopup((Graphics2D) g,  new Point(getWidth()/2, getHeight()/2), _bearing, distOut(),
                 roadWidth()*2/(_rr.getWidth(true)+_rr.getWidth(false)));
+        ((Graphics2D) g).setStroke(stroke);
+        g.setColor(color);
 
         // Draw lane changers
         Point center = new Point(getWidth()/2, getHeight()/2);
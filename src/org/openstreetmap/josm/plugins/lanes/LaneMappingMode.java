@@ -12,9 +12,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.openstreetmap.josm.actions.mapmode.MapMode;
 import org.openstreetmap.josm.data.*;
@@ -26,11 +25,14 @@ import org.openstreetmap.josm.data.osm.event.*;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.MainLayerManager;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 
+import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.tools.Shortcut;
 
+import javax.swing.*;
 import javax.swing.event.ChangeListener;
 
 /*
@@ -39,17 +41,24 @@ import javax.swing.event.ChangeListener;
  * -> The LanesPlugin class is only run when JOSM boots up.
  * -> This class is for entering the lane mapping mode and handling all of the rendered roads.
  *
- * This class stores a list of RoadRenderers, and calls on each of them each time paint() is called.
+ * This class keeps a RendererSet (built in the background), and calls on its renderers each time paint() is called.
  */
 
 public class LaneMappingMode extends MapMode implements MapViewPaintable {
-    // List of roads and intersections currently active in plugin.
-    private List<RoadRenderer> _roads = null;
-    private List<IntersectionRenderer> _intersections = null;
+    // The renderers being painted.  Replaced all at once when a background rebuild finishes.
+    private volatile RendererSet _set = null;
 
-    // Faster way of converting ids to Render objects.
-    public Map<Long, RoadRenderer> wayIdToRSR = new HashMap<>();
-    public Map<Long, IntersectionRenderer> nodeIdToISR = new HashMap<>();
+    // Set to true to cancel the background rebuild in progress, null when there is none.
+    private AtomicBoolean _buildCancelled = null;
+
+    // Ways changed while a background rebuild was running, which the new set might have missed.
+    private final Set<Long> _changedDuringBuild = new HashSet<>();
+
+    // Set when the last rebuild failed, so paint() doesn't start another one until the data changes.
+    private boolean _buildFailed = false;
+
+    // Off-screen tiles of the rendered lanes, used instead of drawing every renderer when "lanes.tiles" is on.
+    private final TileCache _tiles = new TileCache();
 
     // MapView, used for finding the connection between pixels on the screen and coordinates on earth.
     public MapView _mv;
@@ -62,6 +71,7 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
     private MouseListener _ml;
     private UndoRedoHandler.CommandQueuePreciseListener _cqpl;
     private DataSetListener _dsl;
+    private MainLayerManager.ActiveLayerChangeListener _alcl;
 
     // When the dataset changes, the entire structure of RoadRenderers and IntersectionRenderers gets updated.
     // This usually takes about a second, which is slow when the user is just changing the number of lanes or something.
@@ -69,7 +79,13 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
     // which is way faster.
     private int mapChangeTolerance = 0;
 
-    public Map<Long, Way> nodeIntersections;// Temp to allow rendering of these areas.
+    // Ways changed since the last update, collected from DataSetListener events so only they (and whatever
+    // depends on them) get rebuilt.  Anything that can't be described that way falls back on a full rebuild.
+    private final Set<Long> _changedWays = new HashSet<>();
+    private boolean _fullRebuildNeeded = false;
+
+    // Above this many changed ways, rebuilding everything is about as fast as the incremental update.
+    private static final int MAX_INCREMENTAL_WAYS = 200;
 
     public enum Mode {ROAD, INTERSECTION}
 
@@ -83,13 +99,13 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
                 tr(mode == Mode.ROAD ? "Lane Editing Mode" : "Intersection Editing Mode")), mode == Mode.ROAD ? KeyEvent.VK_2 : KeyEvent.VK_3, Shortcut.SHIFT),
                 Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         _mode = mode;
-        _roads = null;
+        _set = null;
     }
 
     @Override
     public void enterMode() {
         super.enterMode();
-        _roads = null;
+        _set = null;
 
         // Adding this as a temporary layer is what makes drawing on top of everything else possible.
         MainApplication.getMap().mapView.addTemporaryLayer(this);
@@ -99,27 +115,27 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
         _dsl = new DataSetListener() {
             @Override
             public void primitivesAdded(PrimitivesAddedEvent event) {
-
+                markChanged(event.getPrimitives());
             }
 
             @Override
             public void primitivesRemoved(PrimitivesRemovedEvent event) {
-
+                markChanged(event.getPrimitives());
             }
 
             @Override
             public void tagsChanged(TagsChangedEvent event) {
-
+                markChanged(event.getPrimitives());
             }
 
             @Override
             public void nodeMoved(NodeMovedEvent event) {
-
+                markChanged(Collections.singletonList(event.getNode()));
             }
 
             @Override
             public void wayNodesChanged(WayNodesChangedEvent event) {
-
+                markChanged(Collections.singletonList(event.getChangedWay()));
             }
 
             @Override
@@ -134,14 +150,15 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
 
             @Override
             public void dataChanged(DataChangedEvent event) {
+                _fullRebuildNeeded = true;
                 updateDataset();
             }
         };
         _ml = new MouseListener() {
             @Override
             public void mousePressed(MouseEvent e) {
-                ensureRoadSegmentsNotNull();
-                RoadRenderer r = getShortestSegmentMouseEvent(e);
+                RendererSet set = getRendererSet();
+                RoadRenderer r = set == null ? null : set.getShortestSegmentMouseEvent(e);
                 if (r != null) {
                     r.mousePressed(e);
                 } else {
@@ -193,12 +210,20 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
                 updateDataset();
             }
         };
+        _alcl = new MainLayerManager.ActiveLayerChangeListener() {
+            @Override
+            public void activeOrEditLayerChanged(MainLayerManager.ActiveLayerChangeEvent e) {
+                // Layouts of the old layer's ways will never be asked for again.
+                if (e.getPreviousEditLayer() != MainApplication.getLayerManager().getEditLayer()) RoadLayoutCache.clear();
+            }
+        };
         // </editor-fold>
 
         // Add them to notifiers.
         MainApplication.getMap().mapView.addMouseListener(_ml);
         UndoRedoHandler.getInstance().addCommandQueuePreciseListener(_cqpl);
         MainApplication.getLayerManager().getEditDataSet().addDataSetListener(_dsl);
+        MainApplication.getLayerManager().addActiveLayerChangeListener(_alcl);
 
         // Reset _modeEntered and _modeExited listener lists
         _modeExited = new ArrayList<>();
@@ -217,6 +242,13 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
         MainApplication.getMap().mapView.removeMouseListener(_ml);
         try { MainApplication.getLayerManager().getEditDataSet().removeDataSetListener(_dsl); } catch (Exception ignored) {}
         try { UndoRedoHandler.getInstance().removeCommandQueuePreciseListener(_cqpl); } catch (Exception ignored) {}
+        try { MainApplication.getLayerManager().removeActiveLayerChangeListener(_alcl); } catch (Exception ignored) {}
+
+        // Stop any rebuild still running, nothing will paint it.
+        if (_buildCancelled != null) _buildCancelled.set(true);
+        _buildCancelled = null;
+        _tiles.clear();
+        RoadLayoutCache.clear(); // Don't keep layouts (and the data they came from) around while the mode isn't used.
 
         // Notify listeners about mode exit.
         for (ChangeListener c : _modeExited) c.stateChanged(null);
@@ -224,16 +256,25 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
 
     @Override
     public void paint(Graphics2D g, MapView mv, Bounds bbox) {
-        // Don't render when the map is too zoomed out or when mv is null.
-        if (mv == null || mv.getScale() > 16) return;
+        // Don't render when mv is null.  How much gets drawn depends on the DetailLevel instead of a zoom cutoff.
+        if (mv == null) return;
 
         _mv = mv;
 
-        // Get map data for rendering:
-        ensureRoadSegmentsNotNull();
+        // Get map data for rendering (the first build happens in the background, so there might not be any yet):
+        RendererSet set = getRendererSet();
+        if (set == null) return;
+
+        if (TileCache.isEnabled()) {
+            _tiles.paint(g, mv, set);
+            return;
+        }
+        _tiles.clear();
+        set.takeChangedAreas(); // Only needed by the tiles.
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        double cushion = _roads.size() > 100 ? 300 : 10000; // Distance in meters around edge of screen where renderer looks for roads to render.
+        DetailLevel level = DetailLevel.of(mv.getScale());
+        double cushion = DetailLevel.cushion(mv.getScale()); // Distance around edge of screen where renderer looks for roads to render.
 
         // Get bounds where rendering should happen
         ProjectionBounds bounds = mv.getProjectionBounds();
@@ -242,21 +283,30 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
                 bounds.maxEast + cushion,
                 bounds.maxNorth + cushion);
 
-        // Render intersections first to ensure gaps get added to roads.
-        for (IntersectionRenderer i : _intersections) {
-            if (intersectionShouldBeRendered(bounds, i)) {
+        // Renderers leave their last stroke and colour set, which shows up as a white box around the screen,
+        // so the original ones are put back after each renderer.
+        Stroke stroke = g.getStroke();
+        Color color = g.getColor();
+
+        // Render intersections.  Their gaps were cut out of the roads when the set was built, so the order only decides
+        // what's on top where they overlap.  Far out, roads are just lines and don't need them.
+        if (level != DetailLevel.FAR) {
+            for (IntersectionRenderer i : set.intersectionsIn(bounds)) {
                 try {
                     i.render(g);
                 } catch (Exception ignored) {}
+                g.setStroke(stroke);
+                g.setColor(color);
             }
         }
 
         // Render each road
-        for (RoadRenderer r : _roads) {
-            if (wayShouldBeRendered(bounds, r.getWay())) {
-//                try {
-                    r.render(g);
-//                } catch (Exception ignored) {}
+        for (RoadRenderer r : set.roadsIn(bounds)) {
+            try {
+                r.render(g, level);
+            } finally {
+                g.setStroke(stroke);
+                g.setColor(color);
             }
         }
     }
@@ -291,199 +341,92 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
 
     // <editor-fold defaultstate="collapsed" desc="Methods for Building Renderers">
 
-    private void ensureRoadSegmentsNotNull() {
-        if (_roads == null || _intersections == null) {
-            _roads = getAllRoadRenderers(new ArrayList<>(MainApplication.getLayerManager().getEditDataSet().getWays()), _mv);
-            _intersections = _mode == Mode.INTERSECTION ? getAllIntersections(_mv) : new ArrayList<>();
-        }
+    /**
+     * Gets the renderers to paint, starting a background rebuild if there aren't any yet.
+     * @return The current RendererSet, or null if the first one is still being built.
+     */
+    private RendererSet getRendererSet() {
+        if (_set == null && _buildCancelled == null && !_buildFailed) startRebuild();
+        return _set;
     }
 
     /**
-     * Generates a list of RoadRenderers for the input ways.
-     * @param ways The list of ways to make RoadRenderers out of.
-     * @param mv The MapView each RoadRenderer should use.
-     * @return The list of created RoadRenderers.
+     * Gets the RoadRenderer currently being painted for a way.
+     * @param wayId The unique id of the way.
+     * @return The RoadRenderer, or null if there isn't one.
      */
-    private List<RoadRenderer> getAllRoadRenderers(List<Way> ways, MapView mv) {
-        wayIdToRSR = new Hashtable<>();
-        List<RoadRenderer> output = new Vector<>();
-
-        // Generate each RoadRenderer.
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
-        for (Way w : ways) {
-            Runnable r = () -> {
-                try {
-                    RoadRenderer rr = RoadRenderer.buildRoadRenderer(w, mv, this);
-                    if (rr == null) return;
-                    wayIdToRSR.put(w.getUniqueId(), rr);
-                    output.add(rr);
-                } catch (Exception ignored) {}
-            };
-            executor.execute(r);
-        }
-        executor.shutdown();
-        try { executor.awaitTermination(30, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
-
-
-        // Give each RoadRenderer a chance to look at roads at endpoints and adjust endpoint angles.
-        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
-        for (RoadRenderer rr : output) {
-            Runnable r = () -> {
-                try {
-                    rr.updateEndAngles(); // updates alignment based on nearby ways.
-                } catch (Exception ignored) {}
-            };
-            executor.execute(r);
-        }
-        executor.shutdown();
-        try { executor.awaitTermination(30, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
-
-
-        return output;
+    public RoadRenderer getRoadRenderer(long wayId) {
+        RendererSet set = _set;
+        return set == null ? null : set.wayIdToRSR.get(wayId);
     }
 
     /**
-     * Generates a list of InterSectionRenderers based on the list of RoadRenderers already created.
-     * @param mv The MapView each IntersectionRenderer should use.
-     * @return The created list of IntersectionRenderers.
+     * Starts building a new RendererSet in the background, cancelling any build that's already running.
+     * The current set keeps getting painted until the new one is done and swapped in.
      */
-    private List<IntersectionRenderer> getAllIntersections(MapView mv) {
-//        try {
-
-        // NEW METHOD:
-        // * Find list of nodes that should be intersections.
-        // * Create really basic outline for each one, preferring efficiency over beauty.
-        // * Find overlapping outlines, and create a list of groups, each containing a bunch of intersections that overlap.
-        // * Generate intersectionRenderers based on those outlines.
-
-        // Get all node-only intersections.
-        Set<Long> handled = new HashSet();
-        List<Way> outlines = new Vector<>();
-        List<Long> nodeIds = new Vector<>();
-        nodeIntersections = new HashMap<>();
-//        List<NodeIntersectionRenderer> intersections = new Vector<>();
-        if (_roads == null) throw new RuntimeException("RoadRenderers not initialized before calling getAllIntersections().");
-
-
-        // Get node-only intersections.
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
-        for (RoadRenderer r : _roads) {
-            for (Node n : r.getWay().getNodes()) {
-                if (!handled.contains(n.getUniqueId())) {
-                    handled.add(n.getUniqueId());
-                    executor.execute(() -> {
-                        if (UtilsSpatial.nodeShouldBeIntersection(n, this)) {
-                            nodeIntersections.put(n.getUniqueId(), UtilsSpatial.lowResOutline(n, this));
-                        }
-                    });
-                }
-            }
-        }
-
-        executor.shutdown();
-        try { executor.awaitTermination(60, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
-
-        List<Long> ids = new ArrayList<>();
-        ids.addAll(nodeIntersections.keySet());
-        ids.sort(Comparator.comparingDouble(o -> nodeIntersections.get(o).getNode(0).lat()));
-
-
-        // Merge overlapping node-only intersections.
-        int[] groups = new int[ids.size()];
-        int max = 0;
-        int[] thisGroup = new int[100]; // Max num of existing separate intersections this node intersection can be merged with. Max real world is usually like 3.
-        for (int i = 1; i < ids.size(); i++) {
-            int num = 0;
-            // Go back along i until an intersect is found:
-            // Max diff in lat is 0.0005.
-            for (int j = i-1; j >= 0; j--) {
-                if (Math.abs(nodeIntersections.get(ids.get(j)).getNode(0).lat()-nodeIntersections.get(ids.get(i)).getNode(0).lat()) > 0.0005) break; // Don't try to connect two intersections that are more than ~150 ft apart.
-                if (sameIntersection(nodeIntersections.get(ids.get(j)), nodeIntersections.get(ids.get(i)))) {
-                    thisGroup[num] = groups[j];
-                    num++;
-                }
-            }
-            if (num == 0) {
-                max++;
-                groups[i] = max;
-            } else {
-                groups[i] = thisGroup[0];
-
-                // Now, check to see if two groups need to be merged.
-                if (num > 1) {
-                    for (int j = 0; j < i; j++) {
-                        for (int k = 1; k < num; k++) {
-                            if (groups[j] == thisGroup[k]) {
-                                groups[j] = thisGroup[0];
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        List<Long>[] multiNodeCollections = new List[max+1];
-        for (int i = 0; i < ids.size(); i++) {
-            if (multiNodeCollections[groups[i]] == null) multiNodeCollections[groups[i]] = new ArrayList<>();
-            multiNodeCollections[groups[i]].add(ids.get(i));
-        }
-
-        List<IntersectionRenderer> out = new Vector<>();
-        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
-        for (List<Long> group : multiNodeCollections) {
-            if (group != null) {
-                executor.execute(() -> {
-                    try {
-                        new IntersectionRenderer(group, out, _mv, this);
-                    } catch (Exception ignored) {}
-                });
-            }
-        }
-
-        executor.shutdown();
-        try { executor.awaitTermination(30, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
-
-        nodeIdToISR = new HashMap<>();
-
-        for (IntersectionRenderer m : out) {
-            for (long l : m.getNodeIntersections()) {
-                nodeIdToISR.put(l, m);
+    private void startRebuild() {
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        if (ds == null) return;
+
+        if (_buildCancelled != null) _buildCancelled.set(true);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        _buildCancelled = cancelled;
+        _changedWays.clear();
+        _changedDuringBuild.clear();
+        _fullRebuildNeeded = false;
+        _buildFailed = false;
+
+        List<Way> ways = new ArrayList<>(ds.getWays());
+        RendererSet set = new RendererSet(this, _mv, _mode == Mode.INTERSECTION);
+        LanesExecutor.submitBuild(() -> {
+            if (cancelled.get()) return;
+            try {
+                set.build(ds, ways, cancelled::get);
+            } catch (CancellationException e) {
+                return;
+            } catch (Exception e) { // Keep painting the old set rather than a partial one.
+                Logging.error(e);
+                SwingUtilities.invokeLater(() -> buildFailed(cancelled));
+                return;
             }
-        }
-
-        return out;
+            SwingUtilities.invokeLater(() -> swapIn(set, cancelled));
+        });
     }
 
-    private boolean sameIntersection(Way outlineA, Way outlineB) {
-        return UtilsSpatial.intersect(outlineA, outlineB, new double[2], false,
-                0, false, false) != null;
+    /**
+     * Forgets a rebuild that threw, keeping the current set.  The next change to the data starts a full rebuild again.
+     * Must be called on the event dispatch thread.
+     */
+    private void buildFailed(AtomicBoolean cancelled) {
+        if (cancelled != _buildCancelled) return;
+        _buildCancelled = null;
+        _buildFailed = true;
+        _fullRebuildNeeded = true;
+        _changedDuringBuild.clear();
     }
 
     /**
-     * Determines whether way is on the map and should be rendered
-     * (will sometimes return false incorrectly for ways with long segments)
-     * @param bounds The bounds of the MapView (or something slightly larger).
-     * @param w The way to be rendered.
-     * @return True if way has node inside of the bounds, false otherwise.
+     * Replaces the set being painted with a newly built one, unless a newer build has started since.
+     * Must be called on the event dispatch thread.
      */
-    private boolean wayShouldBeRendered(ProjectionBounds bounds, Way w) {
-        for (int i = 0; i < w.getNodesCount(); i++) {
-            if (bounds.contains(w.getNode(i).getEastNorth())) {
-                return true;
-            }
+    private void swapIn(RendererSet set, AtomicBoolean cancelled) {
+        if (cancelled.get() || cancelled != _buildCancelled) return;
+        _buildCancelled = null;
+
+        // Ways edited during the build might have been read halfway through the change, so redo them.
+        if (_changedDuringBuild.size() > MAX_INCREMENTAL_WAYS) {
+            _set = set;
+            startRebuild();
+            return;
         }
-        return false;
-    }
-
-    private boolean intersectionShouldBeRendered(ProjectionBounds bounds, IntersectionRenderer i) {
-        double minEast = bounds.minEast - 100;
-        double maxEast = bounds.maxEast + 100;
-        double minNorth = bounds.minNorth - 100;
-        double maxNorth = bounds.maxNorth + 100;
-
-        ProjectionBounds bigger = new ProjectionBounds(minEast, minNorth, maxEast, maxNorth);
-        return bigger.contains(new Node(i.getPos()).getEastNorth());
+        try {
+            if (!_changedDuringBuild.isEmpty()) set.updateWays(new HashSet<>(_changedDuringBuild));
+        } catch (Exception ignored) {}
+        _changedDuringBuild.clear();
+        _set = set;
+
+        notifyDataChanged();
+        if (_mv != null) _mv.repaint();
     }
 
     // </editor-fold>
@@ -495,7 +438,9 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
     }
 
     /**
-     * Forces the dataset to be updated next time paint() is called.
+     * Updates the RoadRenderers and IntersectionRenderers after the dataset changes.
+     * Only the ways reported by the DataSetListener (and the renderers depending on them) are rebuilt,
+     * unless the change couldn't be described that way, in which case everything is rebuilt in the background.
      * If the forceUpdateIgnore count is more than 0, this will take
      * one away from the count instead of updating the dataset.
      */
@@ -508,85 +453,64 @@ public class LaneMappingMode extends MapMode implements MapViewPaintable {
         if (mapChangeTolerance >= 0) return;
         mapChangeTolerance = 0;
 
-        // Set roads and intersections to null to force update, then ensure road segments aren't to finish the job.
-        _roads = null;
-        _intersections = null;
-        ensureRoadSegmentsNotNull();
+        Set<Long> changed = new HashSet<>(_changedWays);
+        _changedWays.clear();
+        boolean incremental = !_fullRebuildNeeded && changed.size() <= MAX_INCREMENTAL_WAYS;
+
+        // A rebuild in progress might have missed these changes, so they get applied to it again when it's done.
+        if (incremental && _buildCancelled != null) _changedDuringBuild.addAll(changed);
 
+        if (incremental && _set != null) {
+            try {
+                _set.updateWays(changed);
+            } catch (Exception e) { // Anything unexpected is handled by a full rebuild.
+                incremental = false;
+            }
+        }
+        if (!incremental) startRebuild();
+
+        notifyDataChanged();
+    }
+
+    private void notifyDataChanged() {
         // Notify all change listeners that the dataset has been changed.
         Object[] listeners = _dataChanged.toArray();
         for (Object a : listeners) ((ActionListener) a).actionPerformed(null);
     }
 
     /**
-     * Updates this way and the nearby intersections.
-     * Only to be used on ways who's alignments or tags were changed.
-     * If the way got deleted, this will not work.
-     * @param uniqueID The unique id of the Way
+     * Remembers which ways need their renderers rebuilt because of changes to the input primitives.
+     * Changes to nodes affect every way they are part of.
+     * @param primitives The primitives reported by a DataSetListener event.
      */
-    public void updateOneRoad(long uniqueID) {
-        Way w = wayIdToRSR.get(uniqueID).getWay();
-        if (w == null || !wayIdToRSR.containsKey(uniqueID)) { // Way deleted/never existed, use slow method instead.
-            mapChangeTolerance = 0;
-            updateDataset();
-            return;
-        }
-
-        // Replace the single roadRenderer:
-        RoadRenderer replacementRR = RoadRenderer.buildRoadRenderer(w, _mv, this);
-        if (replacementRR != null) {
-            _roads.remove(wayIdToRSR.get(uniqueID));
-            wayIdToRSR.put(uniqueID, replacementRR);
-            _roads.add(replacementRR);
-            replacementRR.updateEndAngles();
-        }
-
-        // Find all nearby intersections and roads.
-        List<IntersectionRenderer> intersectionsToUpdate = new ArrayList<>();
-        List<RoadRenderer> roadsToUpdate = new ArrayList<>();
-        for (Node n : w.getNodes()) {
-            if (nodeIdToISR.containsKey(n.getUniqueId())) {
-                for (Way w2 : n.getParentWays()) {
-                    if (wayIdToRSR.containsKey(w2.getUniqueId())) {
-                        roadsToUpdate.add(wayIdToRSR.get(w2.getUniqueId()));
-                        for (Node n2 : w2.getNodes()) {
-                            if (nodeIdToISR.containsKey(n2.getUniqueId())) {
-                                intersectionsToUpdate.add(nodeIdToISR.get(n2.getUniqueId()));
-                            }
-                        }
-                    }
-                }
+    private void markChanged(Collection<? extends OsmPrimitive> primitives) {
+        if (primitives == null || (_set == null && _buildCancelled == null)) return; // Nothing built yet, the first build will see the change.
+        for (OsmPrimitive p : primitives) {
+            if (p instanceof Way) {
+                _changedWays.add(p.getUniqueId());
+            } else if (p instanceof Node) {
+                for (Way w : ((Node) p).getParentWays()) _changedWays.add(w.getUniqueId());
             }
         }
-
-        // For all roads that were part of one of those intersections, reset all hidden sections.
-        for (RoadRenderer r : roadsToUpdate) r.resetRenderingGaps();
-
-        // For all intersections near on the those roads, update their alignments.
-        for (IntersectionRenderer i : intersectionsToUpdate) i.updateAlignment();
+        if (_changedWays.size() > MAX_INCREMENTAL_WAYS) _fullRebuildNeeded = true;
     }
 
-    // </editor-fold>
-
-    // <editor-fold desc="Methods for Handling Mouse Events">
-
     /**
-     * Finds the shortest RoadRenderer overlapping with the coordinates of the MouseEvent.
-     * @param e The event used to determine which RoadRenderers could have been clicked.
-     * @return The shortest RoadRenderer clicked by the MouseEvent.
+     * Updates this way and the nearby intersections.
+     * @param uniqueID The unique id of the Way
      */
-    private RoadRenderer getShortestSegmentMouseEvent(MouseEvent e) {
-        ensureRoadSegmentsNotNull();
-
-        RoadRenderer min = null;
-        for (RoadRenderer r : _roads) {
-            try {
-                if (UtilsClicksAndPopups.mouseEventIsInside(e, r.getAsphaltOutlinePixels(), _mv) && (min == null || r.getWay().getLength() < min.getWay().getLength())) {
-                    min = r;
-                }
-            } catch (Exception ignored) {} // When the alignment is invalid, aka it goes from 0 to 21 lanes wide in 10 meters, this catches the exception.
+    public void updateOneRoad(long uniqueID) {
+        RendererSet set = _set;
+        if (set == null) return;
+        _changedWays.remove(uniqueID);
+        if (_buildCancelled != null) _changedDuringBuild.add(uniqueID);
+        try {
+            set.updateWays(Collections.singleton(uniqueID));
+        } catch (Exception e) { // Couldn't be done incrementally, use slow method instead.
+            mapChangeTolerance = 0;
+            _fullRebuildNeeded = true;
+            updateDataset();
         }
-        return min;
     }
 
     // </editor-fold>
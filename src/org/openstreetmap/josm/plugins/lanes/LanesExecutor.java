@@ -0,0 +1,145 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * LanesExecutor - the thread pool shared by every part of the plugin that builds renderers in parallel.
+ *
+ * -> Uses as many threads as there are cores, unless the "lanes.threads" preference says otherwise.
+ * -> Uses a work-stealing ForkJoinPool, or a fixed pool of named threads if "lanes.threads.forkjoin" is false.
+ * -> Work is split into a few batches per thread, rather than one task per way.
+ * -> Full rebuilds are started from a separate background thread, so they don't hold up the event dispatch thread.
+ */
+
+final class LanesExecutor {
+
+    private static final String PREF_THREADS = "lanes.threads";
+    private static final String PREF_FORK_JOIN = "lanes.threads.forkjoin";
+    private static final int BATCHES_PER_THREAD = 4;
+
+    private static ExecutorService _pool = null;
+    private static int _parallelism = 1;
+    private static ExecutorService _builder = null;
+
+    // Set while a thread is running one of this pool's batches, so nested calls run inline instead of deadlocking.
+    private static final ThreadLocal<Boolean> _inPool = ThreadLocal.withInitial(() -> false);
+
+    private LanesExecutor() {}
+
+    private static synchronized ExecutorService getPool() {
+        if (_pool == null) {
+            _parallelism = Math.max(1, Config.getPref().getInt(PREF_THREADS, Runtime.getRuntime().availableProcessors()));
+            if (Config.getPref().getBoolean(PREF_FORK_JOIN, true)) {
+                _pool = Utils.newForkJoinPool(PREF_THREADS, "lanes-builder-%d", Thread.NORM_PRIORITY);
+            } else {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(_parallelism, _parallelism, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), Utils.newThreadFactory("lanes-builder-%d", Thread.NORM_PRIORITY));
+                pool.allowCoreThreadTimeOut(true); // Don't keep idle threads around between rebuilds.
+                _pool = pool;
+            }
+        }
+        return _pool;
+    }
+
+    /**
+     * Runs a full rebuild in the background.  Rebuilds run one at a time, in the order they were submitted.
+     * @param build The rebuild, which can use the shared pool itself.
+     */
+    static synchronized void submitBuild(Runnable build) {
+        if (_builder == null) {
+            ThreadPoolExecutor builder = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), Utils.newThreadFactory("lanes-rebuild-%d", Thread.NORM_PRIORITY));
+            builder.allowCoreThreadTimeOut(true);
+            _builder = builder;
+        }
+        _builder.execute(build);
+    }
+
+    /**
+     * Runs action on every item using the shared pool, and waits for all of them to finish.
+     * Exceptions thrown by action for one item are ignored, and don't stop the other items.
+     * @param items The items to process.
+     * @param action What to do with each item.
+     */
+    static <T> void forEach(Collection<T> items, Consumer<T> action) {
+        forEachBatch(items, batch -> {
+            for (T item : batch) {
+                try {
+                    action.accept(item);
+                } catch (Exception ignored) {}
+            }
+        });
+    }
+
+    /**
+     * Splits items into a few batches per thread, runs action on each batch using the shared pool,
+     * and waits for all of them to finish.
+     * @param items The items to process.
+     * @param action What to do with each batch.
+     */
+    static <T> void forEachBatch(Collection<T> items, Consumer<List<T>> action) {
+        mapBatches(items, batch -> {
+            action.accept(batch);
+            return null;
+        });
+    }
+
+    /**
+     * Same as forEachBatch, but collects what each batch returns.  Batches can fill their own buffers
+     * without locking, and the caller merges the buffers once everything is done.
+     * @param items The items to process.
+     * @param function What to do with each batch.
+     * @return The result of each batch that finished without throwing, in the same order as items.
+     */
+    static <T, R> List<R> mapBatches(Collection<T> items, Function<List<T>, R> function) {
+        List<R> output = new ArrayList<>();
+        if (items.isEmpty()) return output;
+        List<T> all = new ArrayList<>(items);
+
+        // Already on a worker, or only one thread to use, so there's no point in splitting the work.
+        ExecutorService pool = getPool();
+        if (_inPool.get() || _parallelism == 1 || all.size() == 1) {
+            try {
+                output.add(function.apply(all));
+            } catch (Exception ignored) {}
+            return output;
+        }
+
+        int batchSize = Math.max(1, (all.size() + _parallelism * BATCHES_PER_THREAD - 1) / (_parallelism * BATCHES_PER_THREAD));
+        List<Future<R>> futures = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += batchSize) {
+            List<T> batch = all.subList(i, Math.min(i + batchSize, all.size()));
+            futures.add(pool.submit(() -> {
+                _inPool.set(true);
+                try {
+                    return function.apply(batch);
+                } finally {
+                    _inPool.set(false);
+                }
+            }));
+        }
+
+        for (Future<R> f : futures) {
+            try {
+                output.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return output;
+            } catch (ExecutionException ignored) {}
+        }
+        return output;
+    }
+}
@@ -0,0 +1,188 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * NodeAdjacencyIndex - for every node on a road of a RendererSet, where it shows up in those roads and the way segments
+ * leaving it, sorted clockwise from north.
+ *
+ * -> Built once per RendererSet.build() by walking each road's nodes once, so questions like "how many roads meet here"
+ *    cost O(degree) instead of scanning the node list of every parent way.
+ * -> RendererSet.updateWays() patches in only the ways that changed.  Moving a node changes its parent ways,
+ *    so their bearings are recalculated then too.
+ * -> Only ways with a RoadRenderer in the set are indexed, the same ways the old getParentWays() loops kept.
+ */
+
+final class NodeAdjacencyIndex {
+
+    private final Map<Long, Adjacency> _nodes = new HashMap<>();
+    private final Map<Long, List<Node>> _wayNodes = new HashMap<>(); // Nodes of each way as it was indexed.
+
+    // <editor-fold defaultstate="collapsed" desc="Building">
+
+    void build(Collection<RoadRenderer> roads) {
+        _nodes.clear();
+        _wayNodes.clear();
+        for (RoadRenderer r : roads) add(r.getWay());
+        for (Adjacency a : _nodes.values()) a.sort();
+    }
+
+    /**
+     * Re-indexes the input ways, dropping the ones no longer in roads.
+     * @param wayIds The unique ids of ways that were added, removed or changed.
+     * @param roads The roads of the set, after the change.
+     */
+    void update(Collection<Long> wayIds, Map<Long, RoadRenderer> roads) {
+        Set<Adjacency> touched = new HashSet<>();
+        for (long id : wayIds) {
+            List<Node> old = _wayNodes.remove(id);
+            if (old != null) {
+                for (Node n : old) {
+                    Adjacency a = _nodes.get(n.getUniqueId());
+                    if (a == null) continue;
+                    a.removeWay(id);
+                    if (a.size() == 0) {
+                        _nodes.remove(n.getUniqueId());
+                        touched.remove(a);
+                    } else {
+                        touched.add(a);
+                    }
+                }
+            }
+            RoadRenderer r = roads.get(id);
+            if (r != null) touched.addAll(add(r.getWay()));
+        }
+        for (Adjacency a : touched) a.sort();
+    }
+
+    private List<Adjacency> add(Way w) {
+        List<Node> nodes = w.getNodes();
+        _wayNodes.put(w.getUniqueId(), nodes);
+        List<Adjacency> output = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Adjacency a = _nodes.computeIfAbsent(nodes.get(i).getUniqueId(), k -> new Adjacency());
+            a.add(w, i);
+            output.add(a);
+        }
+        return output;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Queries">
+
+    // Where n shows up in the indexed roads, or null if it isn't on any of them.
+    Adjacency get(Node n) { return _nodes.get(n.getUniqueId()); }
+
+    // Each way segment going out from an interior node is one road, and an endpoint is half a road.
+    int numRoads(Node n) {
+        Adjacency a = get(n);
+        if (a == null) return 0;
+        int total = 0;
+        for (int i = 0; i < a.size(); i++) total += a.isEndpoint(i) ? 1 : 2;
+        return total;
+    }
+
+    boolean hasRoundabout(Node n) {
+        Adjacency a = get(n);
+        if (a == null) return false;
+        for (int i = 0; i < a.size(); i++) if (a.getWay(i).hasTag("junction", "roundabout")) return true;
+        return false;
+    }
+
+    /**
+     * The way segments leaving n, sorted by bearing.
+     * @param bearingStart The first segment returned is the first one clockwise from this bearing, or NaN for north.
+     * @return A new list, which the caller may change.
+     */
+    List<WayVector> getWayVectors(Node n, double bearingStart) {
+        Adjacency a = get(n);
+        List<WayVector> output = new ArrayList<>();
+        if (a == null) return output;
+        output.addAll(a._vectors);
+        if (Double.isNaN(bearingStart)) return output;
+
+        // Segments at or before bearingStart go to the end, unless that's all of them.
+        bearingStart = bearingStart % (2*Math.PI);
+        int before = 0;
+        while (before < a._bearings.length && a._bearings[before] < bearingStart+0.0000001) before++;
+        if (before == output.size()) return output;
+        List<WayVector> rotated = new ArrayList<>(output.subList(before, output.size()));
+        rotated.addAll(output.subList(0, before));
+        return rotated;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Adjacency">
+
+    static final class Adjacency {
+        private final List<Way> _ways = new ArrayList<>(2);
+        private final List<Integer> _indexes = new ArrayList<>(2);
+        private List<WayVector> _vectors = new ArrayList<>();
+        private double[] _bearings = new double[0];
+
+        int size() { return _ways.size(); }
+
+        Way getWay(int i) { return _ways.get(i); }
+
+        // Index of the node in getWay(i).
+        int getIndex(int i) { return _indexes.get(i); }
+
+        boolean isEndpoint(int i) { return getIndex(i) == 0 || getIndex(i) == getWay(i).getNodesCount()-1; }
+
+        private void add(Way w, int index) {
+            _ways.add(w);
+            _indexes.add(index);
+        }
+
+        private void removeWay(long id) {
+            for (int i = _ways.size()-1; i >= 0; i--) {
+                if (_ways.get(i).getUniqueId() != id) continue;
+                _ways.remove(i);
+                _indexes.remove(i);
+            }
+        }
+
+        private void sort() {
+            List<WayVector> vectors = new ArrayList<>();
+            for (int i = 0; i < size(); i++) {
+                Way w = getWay(i);
+                int index = getIndex(i);
+                if (w.getNodesCount() < 2) continue;
+                if (index != 0) vectors.add(new WayVector(index, index-1, w));
+                if (index != w.getNodesCount()-1) vectors.add(new WayVector(index, index+1, w));
+            }
+
+            // Bearings are calculated once here instead of on every comparison.  The sort is stable, like the old bubble sort.
+            double[] bearings = new double[vectors.size()];
+            Integer[] order = new Integer[vectors.size()];
+            for (int i = 0; i < order.length; i++) {
+                bearings[i] = vectors.get(i).bearing();
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingDouble(i -> bearings[i]));
+            List<WayVector> sortedVectors = new ArrayList<>(order.length);
+            double[] sortedBearings = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedVectors.add(vectors.get(order[i]));
+                sortedBearings[i] = bearings[order[i]];
+            }
+            _vectors = sortedVectors;
+            _bearings = sortedBearings;
+        }
+    }
+
+    // </editor-fold>
+}
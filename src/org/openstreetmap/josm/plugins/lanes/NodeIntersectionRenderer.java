@@ -25,8 +25,8 @@ public class NodeIntersectionRenderer extends IntersectionRenderer {
 
     // <editor-fold defaultstate="collapsed" desc="Constructors">
 
-    public NodeIntersectionRenderer(Node n, MapView mv, LaneMappingMode m) {
-        super(null, null, mv, m);
+    public NodeIntersectionRenderer(Node n, MapView mv, RendererSet set) {
+        super(null, null, mv, set);
         _node = n;
         _trimWays = false; // Only multi intersections do this.
         createIntersectionLayout();
@@ -36,7 +36,7 @@ public class NodeIntersectionRenderer extends IntersectionRenderer {
 
     @Override
     public List<WayVector> waysClockwiseOrder() {
-        return UtilsSpatial.getWaysFromNode(_node, _m);
+        return UtilsSpatial.getWaysFromNode(_node, _set);
     }
 
     @Override
@@ -52,7 +52,7 @@ public class NodeIntersectionRenderer extends IntersectionRenderer {
     }
 
     public Way getOutline() {
-        return UtilsSpatial.lowResOutline(getNode(), _m);
+        return UtilsSpatial.lowResOutline(getNode(), _set);
     }
 
     public Way getLowResOutline() { return _lowResOutline; }
@@ -0,0 +1,260 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Polyline - a light, immutable list of lat/lon points used by the geometry code instead of temporary Ways.
+ *
+ * -> Points are packed into one double array (lat, lon, lat, lon, ...), so no Nodes or LatLons are created per point.
+ * -> The distance from the start to every point is calculated once, when the polyline is created,
+ *    so finding the point a given distance in is a binary search.
+ * -> Convert with of(Way) and toWay() only where a Way is really needed (rendering, RoadPieces, intersections).
+ * -> Polylines spanning less than a few km use a local flat frame centred on them, where distances and bearings
+ *    are plain vector math instead of haversine trig.  Turn off with "lanes.geometry.planar".
+ */
+
+final class Polyline {
+
+    private static final double EARTH_RADIUS = 6378137.0; // Same radius LatLon.greatCircleDistance uses.
+    private static final double METERS_PER_DEGREE = 111319.5;
+    private static final double PLANAR_MAX_SPAN = 5000; // Meters, error in the flat frame is well under a cm below this.
+    private static final double PLANAR_MAX_LAT = 80;
+    private static final boolean PLANAR = Config.getPref().getBoolean("lanes.geometry.planar", true);
+
+    private final double[] _coords;
+    private final double[] _distances; // Distance in meters from the first point to each point.
+    private final double _cosLat; // Scale of longitude in the flat frame, or NaN if this polyline uses great circles.
+
+    // <editor-fold defaultstate="collapsed" desc="Creation and Conversion">
+
+    private Polyline(double[] coords) {
+        _coords = coords;
+        _cosLat = planarScale(coords);
+        _distances = new double[coords.length / 2];
+        for (int i = 1; i < _distances.length; i++) {
+            double d = Double.isNaN(_cosLat) ? distance(coords[2*i-2], coords[2*i-1], coords[2*i], coords[2*i+1]) :
+                    Math.hypot((coords[2*i+1] - coords[2*i-1]) * _cosLat, coords[2*i] - coords[2*i-2]) * METERS_PER_DEGREE;
+            _distances[i] = _distances[i-1] + (Double.isNaN(d) ? 0 : d);
+        }
+    }
+
+    // Cosine of the middle latitude if the points fit in a small enough box for the flat frame, otherwise NaN.
+    private static double planarScale(double[] coords) {
+        if (!PLANAR || coords.length == 0) return Double.NaN;
+        double minLat = coords[0], maxLat = coords[0], minLon = coords[1], maxLon = coords[1];
+        for (int i = 2; i < coords.length; i += 2) {
+            minLat = Math.min(minLat, coords[i]);
+            maxLat = Math.max(maxLat, coords[i]);
+            minLon = Math.min(minLon, coords[i+1]);
+            maxLon = Math.max(maxLon, coords[i+1]);
+        }
+        double midLat = (minLat + maxLat) / 2;
+        if (!(Math.abs(midLat) < PLANAR_MAX_LAT)) return Double.NaN; // Also catches NaN coordinates.
+        double cosLat = Math.cos(Math.toRadians(midLat));
+        double span = Math.max(maxLat - minLat, (maxLon - minLon) * cosLat) * METERS_PER_DEGREE;
+        return span < PLANAR_MAX_SPAN ? cosLat : Double.NaN;
+    }
+
+    /** @param coords Packed lat/lon pairs, not copied. */
+    static Polyline of(double[] coords) { return new Polyline(coords); }
+
+    /**
+     * Copies the coordinates of a way.
+     * @throws NullPointerException if any node of the way has no coordinates.
+     */
+    static Polyline of(Way w) {
+        double[] coords = new double[w.getNodesCount() * 2];
+        for (int i = 0; i < w.getNodesCount(); i++) {
+            Node n = w.getNode(i);
+            if (n == null || !n.isLatLonKnown()) throw new NullPointerException("Node " + i + " of way has no coordinates");
+            coords[2*i] = n.lat();
+            coords[2*i+1] = n.lon();
+        }
+        return new Polyline(coords);
+    }
+
+    static Polyline of(List<LatLon> points) {
+        double[] coords = new double[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            coords[2*i] = points.get(i).lat();
+            coords[2*i+1] = points.get(i).lon();
+        }
+        return new Polyline(coords);
+    }
+
+    // A new Way with a new Node at each point.
+    Way toWay() {
+        List<Node> nodes = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) nodes.add(new Node(getCoor(i)));
+        Way output = new Way();
+        output.setNodes(nodes);
+        return output;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Points and Distances">
+
+    int size() { return _distances.length; }
+
+    double lat(int i) { return _coords[2*i]; }
+
+    double lon(int i) { return _coords[2*i+1]; }
+
+    LatLon getCoor(int i) { return new LatLon(_coords[2*i], _coords[2*i+1]); }
+
+    double getLength() { return _distances.length == 0 ? 0 : _distances[_distances.length-1]; }
+
+    // Distance in meters from the first point to point i.
+    double distanceTo(int i) { return _distances[i]; }
+
+    // Index of the first point at or after from that is more than meters from the start, or size() if there isn't one.
+    int indexAfter(double meters, int from) {
+        int low = Math.max(from, 0);
+        int high = _distances.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_distances[mid] > meters) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // Length of the segment from point i to point i+1.
+    double segmentLength(int i) { return _distances[i+1] - _distances[i]; }
+
+    // Bearing in radians (0 is north, clockwise) from point i to point j.
+    double bearing(int i, int j) {
+        if (Double.isNaN(_cosLat)) return bearing(_coords[2*i], _coords[2*i+1], _coords[2*j], _coords[2*j+1]);
+        double bearing = Math.atan2((_coords[2*j+1] - _coords[2*i+1]) * _cosLat, _coords[2*j] - _coords[2*i]);
+        return bearing < 0 ? bearing + 2 * Math.PI : bearing;
+    }
+
+    // Meters per degree of longitude at point i.
+    double metersPerDegreeLon(int i) {
+        return METERS_PER_DEGREE * (Double.isNaN(_cosLat) ? Math.cos(_coords[2*i] / 180.0 * Math.PI) : _cosLat);
+    }
+
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double sinHalfLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinHalfLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double d = 2 * EARTH_RADIUS * Math.asin(Math.sqrt(sinHalfLat * sinHalfLat +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinHalfLon * sinHalfLon));
+        return Double.isNaN(d) ? Math.PI * EARTH_RADIUS : d;
+    }
+
+    static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double rlat1 = Math.toRadians(lat1);
+        double rlat2 = Math.toRadians(lat2);
+        double dlon = Math.toRadians(lon2 - lon1);
+        double bearing = Math.atan2(Math.sin(dlon) * Math.cos(rlat2),
+                Math.cos(rlat1) * Math.sin(rlat2) - Math.sin(rlat1) * Math.cos(rlat2) * Math.cos(dlon));
+        bearing %= 2 * Math.PI;
+        if (bearing < 0) bearing += 2 * Math.PI;
+        return bearing;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Derived Polylines">
+
+    Polyline reverse() {
+        double[] coords = new double[_coords.length];
+        for (int i = 0; i < size(); i++) {
+            coords[2*i] = _coords[2*(size()-1-i)];
+            coords[2*i+1] = _coords[2*(size()-1-i)+1];
+        }
+        return new Polyline(coords);
+    }
+
+    // Points startNode to endNode inclusive, clamped to the ends of this polyline.
+    Polyline subPart(int startNode, int endNode) {
+        if (startNode < 0) startNode = 0;
+        if (endNode > size()-1) endNode = size()-1;
+        double[] coords = new double[Math.max(0, endNode - startNode + 1) * 2];
+        System.arraycopy(_coords, 2*startNode, coords, 0, coords.length);
+        return new Polyline(coords);
+    }
+
+    // Moves the first or last point dist meters further out, in the direction of the first or last segment.
+    Polyline extend(boolean start, double dist) {
+        double[] coords = _coords.clone();
+        int end = start ? 0 : size()-1;
+        int next = start ? 1 : size()-2;
+        double bearing = bearing(next, end);
+        coords[2*end] = lat(end) + Math.cos(bearing) * dist / METERS_PER_DEGREE;
+        coords[2*end+1] = lon(end) + Math.sin(bearing) * dist / metersPerDegreeLon(end);
+        return new Polyline(coords);
+    }
+
+    // Douglas-Peucker: drops every point that's within tolerance meters of the line between the points kept around it.
+    Polyline simplify(double tolerance) {
+        int n = size();
+        if (n < 3 || !(tolerance > 0)) return this;
+
+        // Flat frame in meters around the first point, good enough for measuring offsets this small.
+        double lonScale = metersPerDegreeLon(0);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (lon(i) - lon(0)) * lonScale;
+            y[i] = (lat(i) - lat(0)) * METERS_PER_DEGREE;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n-1] = true;
+        int kept = 2;
+        int[] stack = new int[2*n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n-1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double max = tolerance;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > max) {
+                    max = d;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) continue;
+            keep[farthest] = true;
+            kept++;
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        if (kept == n) return this;
+
+        double[] coords = new double[kept * 2];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (!keep[i]) continue;
+            coords[j++] = lat(i);
+            coords[j++] = lon(i);
+        }
+        return new Polyline(coords);
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lengthSquared = dx*dx + dy*dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax)*dx + (py - ay)*dy) / lengthSquared));
+        return Math.hypot(px - ax - t*dx, py - ay - t*dy);
+    }
+
+    // </editor-fold>
+}
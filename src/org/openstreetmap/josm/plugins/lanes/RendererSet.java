@@ -0,0 +1,579 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapView;
+
+import java.awt.event.MouseEvent;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/*
+ * RendererSet - one complete set of RoadRenderers and IntersectionRenderers, along with the maps and indexes used to find them.
+ *
+ * -> LaneMappingMode builds a new set in the background whenever everything needs rebuilding, and keeps painting
+ *    the old one until the new one is done.  The new set is then swapped in all at once.
+ * -> Renderers look up their neighbours through the set they belong to, so a set being built never sees
+ *    (or changes) the renderers of the set being painted.
+ * -> The background build holds the dataset's read lock while it reads each way, node or intersection, so commands
+ *    can't change primitives in the middle of one.  Ways changed between two of those are redone by updateWays().
+ * -> Smaller changes are applied directly to the current set with updateWays(), on the event dispatch thread.
+ */
+
+public class RendererSet {
+
+    // <editor-fold defaultstate="collapsed" desc="Variables">
+
+    private final LaneMappingMode _mode;
+    private final MapView _mv;
+    private final boolean _intersections;
+
+    // List of roads and intersections in this set.
+    private List<RoadRenderer> _roads = new ArrayList<>();
+    private List<IntersectionRenderer> _intersectionList = new ArrayList<>();
+
+    // Faster way of converting ids to Render objects.
+    public Map<Long, RoadRenderer> wayIdToRSR = new HashMap<>();
+    public Map<Long, IntersectionRenderer> nodeIdToISR = new HashMap<>();
+
+    // Faster way of finding the intersections that trim or connect to a way.
+    private Map<Long, Set<IntersectionRenderer>> wayIdToISRs = new HashMap<>();
+
+    // Where each node shows up in the roads of this set, for finding the roads meeting at a node.
+    private final NodeAdjacencyIndex _adjacency = new NodeAdjacencyIndex();
+
+    public Map<Long, Way> nodeIntersections = new HashMap<>(); // Temp to allow rendering of these areas.
+    private final SpatialIndex<Long> _outlineIndex = new SpatialIndex<>(); // Boxes of nodeIntersections, grown by OUTLINE_MARGIN.
+
+    // Bounding boxes of roads and intersections, so paint() and clicks only look at the ones nearby.
+    private final SpatialIndex<RoadRenderer> _roadIndex = new SpatialIndex<>();
+    private final SpatialIndex<IntersectionRenderer> _intersectionIndex = new SpatialIndex<>();
+
+    // Widest road in the set (meters), so finding the clicked road only has to look that far around the click.
+    private double _maxRoadWidth = 0;
+
+    // Distance in EastNorth units to grow each low res outline's box by when looking for ones it overlaps.
+    private static final double OUTLINE_MARGIN = 1;
+
+    // Read lock of the dataset being built from, only set while build() runs.
+    private volatile Lock _readLock = null;
+
+    // Areas whose rendering changed in updateWays() since takeChangedAreas() was last called, for the tile cache.
+    private final List<ProjectionBounds> _changedAreas = new ArrayList<>();
+
+    // </editor-fold>
+
+    public RendererSet(LaneMappingMode mode, MapView mv, boolean intersections) {
+        _mode = mode;
+        _mv = mv;
+        _intersections = intersections;
+    }
+
+    public LaneMappingMode getMode() { return _mode; }
+
+    public List<RoadRenderer> getRoads() { return _roads; }
+
+    NodeAdjacencyIndex getAdjacency() { return _adjacency; }
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Building Renderers">
+
+    /**
+     * Builds every renderer for the input ways.  Meant to be run off the event dispatch thread.
+     * @param ds The dataset the ways are from, whose read lock is held while reading them.
+     * @param ways The ways to make RoadRenderers (and then IntersectionRenderers) out of.
+     * @param cancelled Checked between steps, stopping the build with a CancellationException once it returns true.
+     */
+    public void build(DataSet ds, Collection<Way> ways, BooleanSupplier cancelled) {
+        _readLock = ds.getReadLock();
+        try {
+            _roads = getAllRoadRenderers(new ArrayList<>(ways), cancelled);
+            locked(() -> {
+                for (RoadRenderer r : _roads) {
+                    _roadIndex.add(r, r.getWay(), 0);
+                    _maxRoadWidth = Math.max(_maxRoadWidth, getReach(r));
+                }
+            });
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            _intersectionList = _intersections ? getAllIntersections(cancelled) : new ArrayList<>();
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+        } finally {
+            _readLock = null;
+        }
+    }
+
+    // Runs task holding the read lock during build(), or right away otherwise (updateWays() runs between commands).
+    private void locked(Runnable task) {
+        lockedGet(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private <T> T lockedGet(Supplier<T> task) {
+        Lock lock = _readLock;
+        if (lock == null) return task.get();
+        lock.lock();
+        try {
+            return task.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Generates a list of RoadRenderers for the input ways.
+     * @param ways The list of ways to make RoadRenderers out of.
+     * @param cancelled Lets the workers skip their remaining ways once the build is no longer needed.
+     * @return The list of created RoadRenderers.
+     */
+    private List<RoadRenderer> getAllRoadRenderers(List<Way> ways, BooleanSupplier cancelled) {
+        // Generate each RoadRenderer, with each batch collecting its own list so workers never wait on each other.
+        List<List<RoadRenderer>> batches = LanesExecutor.mapBatches(ways, batch -> {
+            List<RoadRenderer> built = new ArrayList<>();
+            for (Way w : batch) {
+                if (cancelled.getAsBoolean()) break;
+                try {
+                    RoadRenderer rr = lockedGet(() -> RoadRenderer.buildRoadRenderer(w, _mv, this));
+                    if (rr != null) built.add(rr);
+                } catch (Exception ignored) {}
+            }
+            return built;
+        });
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+
+        // Merge the batches.  The map is only read from here on, so it doesn't need to be thread safe.
+        List<RoadRenderer> output = new ArrayList<>();
+        Map<Long, RoadRenderer> idToRSR = new HashMap<>();
+        for (List<RoadRenderer> built : batches) {
+            for (RoadRenderer rr : built) {
+                idToRSR.put(rr.getWay().getUniqueId(), rr);
+                output.add(rr);
+            }
+        }
+        wayIdToRSR = idToRSR;
+        locked(() -> _adjacency.build(output));
+
+        // Give each RoadRenderer a chance to look at roads at endpoints and adjust endpoint angles.
+        LanesExecutor.forEach(output, rr -> locked(rr::updateEndAngles)); // updates alignment based on nearby ways.
+
+        return output;
+    }
+
+    /**
+     * Generates a list of InterSectionRenderers based on the list of RoadRenderers already created.
+     * @param cancelled Lets the workers skip their remaining nodes once the build is no longer needed.
+     * @return The created list of IntersectionRenderers.
+     */
+    private List<IntersectionRenderer> getAllIntersections(BooleanSupplier cancelled) {
+//        try {
+
+        // NEW METHOD:
+        // * Find list of nodes that should be intersections.
+        // * Create really basic outline for each one, preferring efficiency over beauty.
+        // * Find overlapping outlines, and create a list of groups, each containing a bunch of intersections that overlap.
+        // * Generate intersectionRenderers based on those outlines.
+
+        // Get all node-only intersections.
+        Set<Long> handled = new HashSet<>();
+        nodeIntersections = new HashMap<>();
+//        List<NodeIntersectionRenderer> intersections = new Vector<>();
+        if (_roads == null) throw new RuntimeException("RoadRenderers not initialized before calling getAllIntersections().");
+
+
+        // Get node-only intersections.
+        List<Node> nodes = new ArrayList<>();
+        locked(() -> {
+            for (RoadRenderer r : _roads) {
+                for (Node n : r.getWay().getNodes()) {
+                    if (!handled.contains(n.getUniqueId())) {
+                        handled.add(n.getUniqueId());
+                        nodes.add(n);
+                    }
+                }
+            }
+        });
+        List<Map<Long, Way>> found = LanesExecutor.mapBatches(nodes, batch -> {
+            Map<Long, Way> outlines = new HashMap<>();
+            for (Node n : batch) {
+                if (cancelled.getAsBoolean()) break;
+                try {
+                    Way outline = lockedGet(() -> UtilsSpatial.nodeShouldBeIntersection(n, this) ? UtilsSpatial.lowResOutline(n, this) : null);
+                    if (outline != null) outlines.put(n.getUniqueId(), outline);
+                } catch (Exception ignored) {}
+            }
+            return outlines;
+        });
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+        for (Map<Long, Way> outlines : found) nodeIntersections.putAll(outlines);
+        _outlineIndex.clear();
+        for (Map.Entry<Long, Way> e : nodeIntersections.entrySet()) _outlineIndex.add(e.getKey(), e.getValue(), OUTLINE_MARGIN);
+
+        List<Long> ids = new ArrayList<>();
+        ids.addAll(nodeIntersections.keySet());
+
+        // Split every group into the parts that can be explored from each other, then build all of the parts in parallel.
+        List<List<List<Long>>> split = LanesExecutor.mapBatches(groupOverlappingIntersections(ids), batch -> {
+            List<List<Long>> parts = new ArrayList<>();
+            for (List<Long> group : batch) {
+                if (cancelled.getAsBoolean()) break;
+                parts.addAll(lockedGet(() -> IntersectionRenderer.splitGroup(group, this)));
+            }
+            return parts;
+        });
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+        List<List<Long>> parts = new ArrayList<>();
+        for (List<List<Long>> p : split) parts.addAll(p);
+
+        List<List<IntersectionRenderer>> built = LanesExecutor.mapBatches(parts, batch -> {
+            List<IntersectionRenderer> intersections = new ArrayList<>();
+            for (List<Long> group : batch) {
+                if (cancelled.getAsBoolean()) break;
+                try {
+                    locked(() -> new IntersectionRenderer(group, intersections, _mv, this));
+                } catch (Exception ignored) {}
+            }
+            return intersections;
+        });
+        List<IntersectionRenderer> out = new ArrayList<>();
+        for (List<IntersectionRenderer> intersections : built) out.addAll(intersections);
+
+        nodeIdToISR = new HashMap<>();
+        wayIdToISRs = new HashMap<>();
+        _intersectionIndex.clear();
+
+        for (IntersectionRenderer m : out) indexIntersection(m);
+
+        // Every intersection is built, so each road can get all of its gaps at once.
+        LanesExecutor.forEach(_roads, rr -> locked(() -> rr.setRenderingGaps(getRenderingGaps(rr.getWay().getUniqueId()))));
+
+        return out;
+    }
+
+    /**
+     * Groups node-only intersections whose low res outlines overlap, so each group can become one IntersectionRenderer.
+     * @param ids The unique ids of nodes in nodeIntersections to group.
+     * @return The groups, each containing the node ids of one intersection.
+     */
+    private List<List<Long>> groupOverlappingIntersections(List<Long> ids) {
+        ids = new ArrayList<>(ids);
+        ids.sort(Comparator.comparingDouble(o -> nodeIntersections.get(o).getNode(0).lat()));
+
+        // Bounding boxes of the outlines, so each one is only checked against the few it could touch.
+        SpatialIndex<Integer> index = new SpatialIndex<>();
+        for (int i = 0; i < ids.size(); i++) index.add(i, nodeIntersections.get(ids.get(i)), OUTLINE_MARGIN);
+
+        // Merge overlapping node-only intersections.  Each group is a tree of indexes into ids, rooted at its lowest index.
+        int[] parent = new int[ids.size()];
+        for (int i = 0; i < ids.size(); i++) parent[i] = i;
+        for (int i = 0; i < ids.size(); i++) {
+            Way outline = nodeIntersections.get(ids.get(i));
+            ProjectionBounds bounds = index.getBounds(i);
+            if (bounds == null) continue;
+            for (int j : index.query(bounds)) {
+                if (j >= i || findGroup(parent, i) == findGroup(parent, j)) continue;
+                Way other = nodeIntersections.get(ids.get(j));
+                if (Math.abs(other.getNode(0).lat() - outline.getNode(0).lat()) > 0.0005) continue; // Don't try to connect two intersections that are more than ~150 ft apart.
+                if (sameIntersection(other, outline)) {
+                    int a = findGroup(parent, i), b = findGroup(parent, j);
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        // Groups come out in order of their lowest index, with ids in each in the order above.
+        Map<Integer, List<Long>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) groups.computeIfAbsent(findGroup(parent, i), k -> new ArrayList<>()).add(ids.get(i));
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int findGroup(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void indexIntersection(IntersectionRenderer i) {
+        for (long l : i.getNodeIntersections()) nodeIdToISR.put(l, i);
+        for (long l : i.getWayIds()) wayIdToISRs.computeIfAbsent(l, k -> new HashSet<>()).add(i);
+
+        // Use the outline for the bounding box when there is one, otherwise just the area around the center.
+        if (i._outline != null && i._outline.getNodesCount() > 0) {
+            _intersectionIndex.add(i, i._outline, 0);
+        } else {
+            EastNorth pos = new Node(i.getPos()).getEastNorth();
+            _intersectionIndex.add(i, pos.east() - 100, pos.north() - 100, pos.east() + 100, pos.north() + 100);
+        }
+    }
+
+    private void unindexIntersection(IntersectionRenderer i) {
+        _intersectionIndex.remove(i);
+        for (long l : i.getNodeIntersections()) nodeIdToISR.remove(l, i);
+        for (long l : i.getWayIds()) {
+            Set<IntersectionRenderer> set = wayIdToISRs.get(l);
+            if (set == null) continue;
+            set.remove(i);
+            if (set.isEmpty()) wayIdToISRs.remove(l);
+        }
+    }
+
+    private boolean sameIntersection(Way outlineA, Way outlineB) {
+        return UtilsSpatial.intersect(outlineA, outlineB, new double[2], false,
+                0, false, false) != null;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Handling Dataset Changes">
+
+    /**
+     * Rebuilds the RoadRenderers of the input ways, updates the end angles of the roads connected to them,
+     * and rebuilds every intersection touching any of those roads.  Everything else is left alone.
+     * @param changedWayIds The unique ids of ways that were added, removed, or changed.
+     */
+    public void updateWays(Set<Long> changedWayIds) {
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+
+        // Replace the RoadRenderers of the changed ways, remembering the old endpoints to find neighbours the way left.
+        Set<RoadRenderer> removed = new HashSet<>();
+        List<RoadRenderer> added = new ArrayList<>();
+        Set<Node> endpoints = new HashSet<>();
+        for (long id : changedWayIds) {
+            RoadRenderer old = wayIdToRSR.remove(id);
+            if (old != null) {
+                removed.add(old);
+                markChanged(_roadIndex.getBounds(old));
+                _roadIndex.remove(old);
+                endpoints.addAll(old.getEndNodes());
+            }
+            Way w = (Way) ds.getPrimitiveById(id, OsmPrimitiveType.WAY);
+            if (w == null || w.isDeleted() || !w.isUsable()) continue;
+            RoadRenderer rr = RoadRenderer.buildRoadRenderer(w, _mv, this);
+            if (rr == null) continue;
+            wayIdToRSR.put(id, rr);
+            _roadIndex.add(rr, w, 0);
+            _maxRoadWidth = Math.max(_maxRoadWidth, getReach(rr));
+            added.add(rr);
+            endpoints.addAll(rr.getEndNodes());
+        }
+        if (!removed.isEmpty()) _roads.removeIf(removed::contains);
+        _roads.addAll(added);
+        _adjacency.update(changedWayIds, wayIdToRSR);
+
+        // Roads connected at either end of a changed way use it for their end angles, so they change too.
+        Set<RoadRenderer> changedRoads = new LinkedHashSet<>(added);
+        for (Node n : endpoints) {
+            for (Way w : n.getParentWays()) {
+                RoadRenderer rr = wayIdToRSR.get(w.getUniqueId());
+                if (rr != null) changedRoads.add(rr);
+            }
+        }
+        for (RoadRenderer rr : changedRoads) {
+            rr.resetEndAngles();
+            markChanged(_roadIndex.getBounds(rr));
+        }
+
+        if (!_intersections) return;
+
+        // Intersections touching any of the changed roads (old or new geometry) need to be rebuilt.
+        Set<Long> changedRoadIds = new HashSet<>(changedWayIds);
+        for (RoadRenderer rr : changedRoads) changedRoadIds.add(rr.getWay().getUniqueId());
+        Set<IntersectionRenderer> oldIntersections = new HashSet<>();
+        Set<Long> candidateNodes = new HashSet<>();
+        for (long id : changedRoadIds) {
+            Set<IntersectionRenderer> set = wayIdToISRs.get(id);
+            if (set != null) oldIntersections.addAll(set);
+            RoadRenderer rr = wayIdToRSR.get(id);
+            if (rr == null) continue;
+            for (Node n : rr.getWay().getNodes()) {
+                candidateNodes.add(n.getUniqueId());
+                if (nodeIdToISR.containsKey(n.getUniqueId())) oldIntersections.add(nodeIdToISR.get(n.getUniqueId()));
+            }
+        }
+        for (IntersectionRenderer i : oldIntersections) candidateNodes.addAll(i.getNodeIntersections());
+
+        // Recalculate node-only intersections for every candidate node.
+        List<Long> newNodeIntersections = new ArrayList<>();
+        for (long id : candidateNodes) {
+            nodeIntersections.remove(id);
+            _outlineIndex.remove(id);
+            Node n = (Node) ds.getPrimitiveById(id, OsmPrimitiveType.NODE);
+            if (n == null || n.isDeleted() || !n.isUsable()) continue;
+            if (UtilsSpatial.nodeShouldBeIntersection(n, this)) {
+                Way outline = UtilsSpatial.lowResOutline(n, this);
+                nodeIntersections.put(id, outline);
+                _outlineIndex.add(id, outline, OUTLINE_MARGIN);
+                newNodeIntersections.add(id);
+            }
+        }
+
+        // New outlines can overlap intersections that weren't otherwise affected, which then need to be merged in.
+        // Only the outlines whose boxes overlap can, the same as in groupOverlappingIntersections().
+        List<Long> toGroup = new ArrayList<>(newNodeIntersections);
+        for (int i = 0; i < toGroup.size(); i++) {
+            Way outline = nodeIntersections.get(toGroup.get(i));
+            ProjectionBounds bounds = _outlineIndex.getBounds(toGroup.get(i));
+            if (bounds == null) continue;
+            for (long otherId : _outlineIndex.query(bounds)) {
+                if (candidateNodes.contains(otherId)) continue;
+                Way other = nodeIntersections.get(otherId);
+                if (Math.abs(other.getNode(0).lat() - outline.getNode(0).lat()) > 0.0005) continue;
+                if (!sameIntersection(outline, other)) continue;
+                candidateNodes.add(otherId);
+                toGroup.add(otherId);
+                IntersectionRenderer existing = nodeIdToISR.get(otherId);
+                if (existing != null && oldIntersections.add(existing)) {
+                    for (long l : existing.getNodeIntersections()) {
+                        if (candidateNodes.add(l) && nodeIntersections.containsKey(l)) toGroup.add(l);
+                    }
+                }
+            }
+        }
+        for (IntersectionRenderer i : oldIntersections) {
+            markChanged(_intersectionIndex.getBounds(i));
+            unindexIntersection(i);
+            for (long l : i.getNodeIntersections()) {
+                if (!toGroup.contains(l) && nodeIntersections.containsKey(l)) toGroup.add(l);
+            }
+        }
+        if (!oldIntersections.isEmpty()) _intersectionList.removeIf(oldIntersections::contains);
+
+        // Roads touching old or new intersections have their gaps recalculated from scratch.
+        Set<Long> roadsToReset = new HashSet<>(changedRoadIds);
+        for (IntersectionRenderer i : oldIntersections) roadsToReset.addAll(i.getWayIds());
+
+        List<IntersectionRenderer> newIntersections = new ArrayList<>();
+        List<List<Long>> groups = groupOverlappingIntersections(toGroup);
+        for (List<Long> group : groups) {
+            for (long l : group) {
+                for (Way w : ((Node) ds.getPrimitiveById(l, OsmPrimitiveType.NODE)).getParentWays()) roadsToReset.add(w.getUniqueId());
+            }
+        }
+        for (long id : roadsToReset) {
+            RoadRenderer rr = wayIdToRSR.get(id);
+            if (rr != null) {
+                rr.resetRenderingGaps();
+                markChanged(_roadIndex.getBounds(rr));
+            }
+        }
+
+        for (List<Long> group : groups) {
+            for (List<Long> part : IntersectionRenderer.splitGroup(group, this)) {
+                try {
+                    new IntersectionRenderer(part, newIntersections, _mv, this);
+                } catch (Exception ignored) {}
+            }
+        }
+        for (IntersectionRenderer i : newIntersections) {
+            indexIntersection(i);
+            markChanged(_intersectionIndex.getBounds(i));
+        }
+        _intersectionList.addAll(newIntersections);
+
+        // Other intersections on the reset roads need to cut their gaps out again.
+        Set<IntersectionRenderer> toRealign = new HashSet<>();
+        for (long id : roadsToReset) {
+            Set<IntersectionRenderer> set = wayIdToISRs.get(id);
+            if (set != null) toRealign.addAll(set);
+        }
+        newIntersections.forEach(toRealign::remove);
+        for (IntersectionRenderer i : toRealign) {
+            i.updateAlignment();
+            markChanged(_intersectionIndex.getBounds(i));
+        }
+
+        // Then cut the gaps of all of those intersections out of their roads.
+        Set<Long> roadsToCut = new HashSet<>(roadsToReset);
+        for (IntersectionRenderer i : newIntersections) roadsToCut.addAll(i.getWayIds());
+        for (IntersectionRenderer i : toRealign) roadsToCut.addAll(i.getWayIds());
+        for (long id : roadsToCut) {
+            RoadRenderer rr = wayIdToRSR.get(id);
+            if (rr == null) continue;
+            rr.setRenderingGaps(getRenderingGaps(id));
+            markChanged(_roadIndex.getBounds(rr));
+        }
+    }
+
+    // Gaps every intersection on the road of way wayId cuts out of it.
+    private List<double[]> getRenderingGaps(long wayId) {
+        List<double[]> output = new ArrayList<>();
+        Set<IntersectionRenderer> set = wayIdToISRs.get(wayId);
+        if (set != null) for (IntersectionRenderer i : set) output.addAll(i.getRenderingGaps(wayId));
+        return output;
+    }
+
+    private void markChanged(ProjectionBounds area) {
+        if (area != null) _changedAreas.add(area);
+    }
+
+    /**
+     * Gets every area whose rendering was changed by updateWays() since the last call, and forgets them.
+     * @return The bounding boxes (EastNorth) of the changed renderers, old and new.
+     */
+    public List<ProjectionBounds> takeChangedAreas() {
+        List<ProjectionBounds> output = new ArrayList<>(_changedAreas);
+        _changedAreas.clear();
+        return output;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Finding Renderers">
+
+    public List<RoadRenderer> roadsIn(ProjectionBounds bounds) { return _roadIndex.query(bounds); }
+
+    public List<IntersectionRenderer> intersectionsIn(ProjectionBounds bounds) { return _intersectionIndex.query(bounds); }
+
+    // Bounding box of a road's way, or null if it isn't one of this set's roads.
+    public ProjectionBounds getBounds(RoadRenderer r) { return _roadIndex.getBounds(r); }
+
+    /**
+     * Finds the shortest RoadRenderer overlapping with the coordinates of the MouseEvent.
+     * @param e The event used to determine which RoadRenderers could have been clicked.
+     * @return The shortest RoadRenderer clicked by the MouseEvent.
+     */
+    public RoadRenderer getShortestSegmentMouseEvent(MouseEvent e) {
+        // Only roads whose way's bounding box is within reach of the click can contain it, and only their asphalt
+        // outlines get calculated, whether or not they have been painted.  Far out, roads are lines at least 2 pixels wide.
+        EastNorth click = _mv.getEastNorth(e.getX(), e.getY());
+        double perMeter = _mv.getScale() * 100 / _mv.getDist100Pixel(); // EastNorth units per meter around the screen.
+        double slack = 2 * _mv.getScale();
+        double maxReach = _maxRoadWidth * perMeter + slack;
+        List<RoadRenderer> candidates = _roadIndex.query(click.east() - maxReach, click.north() - maxReach,
+                click.east() + maxReach, click.north() + maxReach);
+
+        RoadRenderer min = null;
+        for (RoadRenderer r : candidates) {
+            try {
+                ProjectionBounds b = _roadIndex.getBounds(r);
+                double reach = getReach(r) * perMeter + slack;
+                if (click.east() < b.minEast - reach || click.east() > b.maxEast + reach
+                        || click.north() < b.minNorth - reach || click.north() > b.maxNorth + reach) continue;
+                if (r.containsClick(e) && (min == null || r.getWay().getLength() < min.getWay().getLength())) {
+                    min = r;
+                }
+            } catch (Exception ignored) {} // When the alignment is invalid, aka it goes from 0 to 21 lanes wide in 10 meters, this catches the exception.
+        }
+        return min;
+    }
+
+    // How far (meters) the asphalt of r can be from its way.  A whole width, since placement can put the way on one edge.
+    private static double getReach(RoadRenderer r) {
+        try {
+            return Math.max(r.getWidth(true), r.getWidth(false));
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    // </editor-fold>
+}
@@ -0,0 +1,192 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * RoadLayoutCache - remembers the placement and alignment of marked roads between rebuilds.
+ *
+ * -> A layout is keyed by way id, the node ids and coordinates, the tags and the two end angles, all compared exactly,
+ *    so a way whose geometry, tags or neighbours changed never gets a stale layout back.  Only tags that just describe
+ *    the road (names, refs, notes, sources, ...) are left out, so any tag the renderers start reading is in the key.
+ * -> Keys don't hold on to primitives, and LaneMappingMode clears the cache when the mode is left or the edit layer
+ *    changes.
+ * -> Least recently used layouts are dropped once the cached alignments and edges hold more than
+ *    "lanes.layoutcache.nodes" nodes in total.
+ * -> Layouts are shared between renderers, so nothing stored in them may be modified after it is added.
+ */
+
+final class RoadLayoutCache {
+
+    private static final String PREF_MAX_NODES = "lanes.layoutcache.nodes";
+
+    private static final LinkedHashMap<Key, Layout> _layouts = new LinkedHashMap<>(256, 0.75f, true);
+    private static long _weight = 0;
+
+    private RoadLayoutCache() {}
+
+    // <editor-fold defaultstate="collapsed" desc="Layouts">
+
+    /** The placement of one marked road, for one pair of end angles. */
+    static final class Layout {
+        final double offsetToLeftStart;
+        final double offsetToLeftEnd;
+        final Way alignment;
+        private final Polyline[] _edges = new Polyline[2]; // Whole-road left and right edges, filled in when first asked for.
+        private boolean _cached = false; // Whether this layout's weight is counted in _weight.
+
+        Layout(double offsetToLeftStart, double offsetToLeftEnd, Way alignment) {
+            this.offsetToLeftStart = offsetToLeftStart;
+            this.offsetToLeftEnd = offsetToLeftEnd;
+            this.alignment = alignment;
+        }
+
+        Polyline getEdge(boolean right) {
+            synchronized (_layouts) {
+                return _edges[right ? 1 : 0];
+            }
+        }
+
+        void setEdge(boolean right, Polyline edge) {
+            if (edge == null) return;
+            synchronized (_layouts) {
+                if (_edges[right ? 1 : 0] != null) return;
+                _edges[right ? 1 : 0] = edge;
+                if (_cached) {
+                    _weight += edge.size();
+                    evict();
+                }
+            }
+        }
+
+        // Must be called while holding _layouts.
+        private int weight() {
+            int weight = alignment == null ? 1 : alignment.getNodesCount();
+            for (Polyline edge : _edges) if (edge != null) weight += edge.size();
+            return weight;
+        }
+    }
+
+    private static final class Key {
+        private final long _wayId;
+        private final long[] _nodeIds;
+        private final double[] _coords; // Lat, lon of each node, NaN if unknown.
+        private final Map<String, String> _tags;
+        private final long _startAngle;
+        private final long _endAngle;
+        private final int _hash;
+
+        private Key(Way w, double startAngle, double endAngle) {
+            _wayId = w.getUniqueId();
+            List<Node> nodes = w.getNodes();
+            _nodeIds = new long[nodes.size()];
+            _coords = new double[nodes.size()*2];
+            for (int i = 0; i < nodes.size(); i++) {
+                Node n = nodes.get(i);
+                _nodeIds[i] = n.getUniqueId();
+                _coords[2*i] = n.isLatLonKnown() ? n.lat() : Double.NaN;
+                _coords[2*i+1] = n.isLatLonKnown() ? n.lon() : Double.NaN;
+            }
+            _tags = new TreeMap<>();
+            for (Map.Entry<String, String> tag : w.getKeys().entrySet()) {
+                if (shapesRoad(tag.getKey())) _tags.put(tag.getKey(), tag.getValue());
+            }
+            _startAngle = Double.doubleToLongBits(startAngle);
+            _endAngle = Double.doubleToLongBits(endAngle);
+
+            long h = _wayId * 31 + Arrays.hashCode(_nodeIds);
+            h = h * 31 + Arrays.hashCode(_coords);
+            h = h * 31 + _tags.hashCode();
+            h = h * 31 + _startAngle;
+            h = h * 31 + _endAngle;
+            _hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return _hash == k._hash && _wayId == k._wayId && _startAngle == k._startAngle && _endAngle == k._endAngle &&
+                    Arrays.equals(_nodeIds, k._nodeIds) && Arrays.equals(_coords, k._coords) && _tags.equals(k._tags);
+        }
+
+        @Override
+        public int hashCode() { return _hash; }
+    }
+
+    // Whether a tag can change the placement, width or edges of a road.  Every tag can, except the ones below,
+    // which no renderer reads.
+    private static boolean shapesRoad(String key) {
+        return !(key.contains("name") || key.equals("ref") || key.endsWith("_ref") || key.startsWith("ref:") ||
+                key.startsWith("note") || key.startsWith("source") || key.equalsIgnoreCase("fixme") ||
+                key.startsWith("description") || key.startsWith("check_date") || key.startsWith("survey") ||
+                key.startsWith("wikidata") || key.startsWith("wikipedia") || key.startsWith("tiger:") ||
+                key.equals("created_by") || key.equals("comment"));
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Lookup and Eviction">
+
+    /**
+     * Finds the layout of a way as it was last computed with the same nodes, tags and end angles.
+     * @return The layout, or null if there isn't one.
+     */
+    static Layout get(Way w, double startAngle, double endAngle) {
+        Key key = new Key(w, startAngle, endAngle);
+        synchronized (_layouts) {
+            return _layouts.get(key);
+        }
+    }
+
+    /**
+     * Stores the layout of a way, replacing whatever was there for the same key.
+     * @return The layout that was stored.
+     */
+    static Layout put(Way w, double startAngle, double endAngle, Layout layout) {
+        Key key = new Key(w, startAngle, endAngle);
+        synchronized (_layouts) {
+            Layout old = _layouts.put(key, layout);
+            if (old != null && old != layout) {
+                old._cached = false;
+                _weight -= old.weight();
+            }
+            if (!layout._cached) {
+                layout._cached = true;
+                _weight += layout.weight();
+            }
+            evict();
+        }
+        return layout;
+    }
+
+    static void clear() {
+        synchronized (_layouts) {
+            for (Layout layout : _layouts.values()) layout._cached = false;
+            _layouts.clear();
+            _weight = 0;
+        }
+    }
+
+    // Drops least recently used layouts until the cache fits again.  Must be called while holding _layouts.
+    private static void evict() {
+        long max = Math.max(0, Config.getPref().getInt(PREF_MAX_NODES, 250000));
+        Iterator<Map.Entry<Key, Layout>> it = _layouts.entrySet().iterator();
+        while (_weight > max && it.hasNext()) {
+            Layout layout = it.next().getValue();
+            layout._cached = false;
+            _weight -= layout.weight();
+            it.remove();
+        }
+    }
+
+    // </editor-fold>
+}
@@ -1,6 +1,5 @@
 package org.openstreetmap.josm.plugins.lanes;
 
-import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MapView;
 
@@ -68,9 +67,10 @@ abstract class RoadPiece {
 
     protected List<Polygon> getAsphaltOutlines() {
         List<Polygon> output = new ArrayList<>();
+        Polyline alignment = _parent.getAlignmentLine();
         for (int i = 0; i < _parent.segmentStartPoints.size(); i++) {
-            double swt = (Math.max(_parent.segmentStartPoints.get(i), 0)/_parent.getAlignment().getLength());
-            double ewt = (Math.min(_parent.segmentEndPoints.get(i), _parent.getAlignment().getLength())/_parent.getAlignment().getLength());
+            double swt = (Math.max(_parent.segmentStartPoints.get(i), 0)/alignment.getLength());
+            double ewt = (Math.min(_parent.segmentEndPoints.get(i), alignment.getLength())/alignment.getLength());
 
             double widthStart = swt*getWidth(false) + (1-swt)*getWidth(true);
             double widthEnd = ewt*getWidth(false) + (1-ewt)*getWidth(true);
@@ -78,25 +78,26 @@ abstract class RoadPiece {
             double startOffset = swt*_offsetEnd + (1-swt)*_offsetStart;
             double endOffset = ewt*_offsetEnd + (1-ewt)*_offsetStart;
 
-            Way subpart = UtilsSpatial.getSubPart(_parent.getAlignment(), _parent.segmentStartPoints.get(i), _parent.segmentEndPoints.get(i));
-            Way left = UtilsSpatial.getParallel(subpart, startOffset + (widthStart / 2.0), endOffset + (widthEnd / 2.0),
+            Polyline subpart = UtilsSpatial.getSubPart(alignment, _parent.segmentStartPoints.get(i), _parent.segmentEndPoints.get(i));
+            Polyline left = UtilsSpatial.getParallel(subpart, startOffset + (widthStart / 2.0), endOffset + (widthEnd / 2.0),
                     false, _parent.otherStartAngle, _parent.otherEndAngle);
-            Way right = UtilsSpatial.getParallel(subpart, startOffset - (widthStart / 2.0), endOffset - (widthEnd / 2.0),
+            Polyline right = UtilsSpatial.getParallel(subpart, startOffset - (widthStart / 2.0), endOffset - (widthEnd / 2.0),
                     false, _parent.otherStartAngle, _parent.otherEndAngle);
-            List<Node> outline = new ArrayList<>();
 
-            for (int j = 0; j < left.getNodesCount(); j++) outline.add(left.getNode(j));
-
-            for (int j = 0; j < right.getNodesCount(); j++) outline.add(right.getNode(right.getNodesCount() - j - 1));
-
-            outline.add(left.getNode(0));
-            Way outlineWay = new Way();
-            outlineWay.setNodes(outline);
-            output.add(UtilsRender.wayToPolygon(outlineWay, _mv));
+            Polygon outline = new Polygon();
+            for (int j = 0; j < left.size(); j++) addPoint(outline, left, j);
+            for (int j = 0; j < right.size(); j++) addPoint(outline, right, right.size() - j - 1);
+            addPoint(outline, left, 0);
+            output.add(outline);
         }
         return output;
     }
 
+    private void addPoint(Polygon polygon, Polyline line, int i) {
+        Point p = _mv.getPoint(line.getCoor(i));
+        polygon.addPoint((int) (p.getX() + 0.5), (int) (p.getY() + 0.5));
+    }
+
     // <editor-fold desc="Mouse Listeners">
 
     public void mouseClicked(MouseEvent e) {
@@ -83,7 +83,7 @@ public class RoadPieceDivider extends RoadPiece {
 
     @Override
     public void render(Graphics2D g) {
-        if (_mv.getScale() > 4) return; // Don't render when the map is too zoomed out
+        if (DetailLevel.of(_mv.getScale()) == DetailLevel.FAR) return; // Don't render when the map is too zoomed out
 
         if (_direction == 0 && (getWidth(true) > UtilsRender.RENDERING_WIDTH_DIVIDER + 0.5 ||
                     getWidth(false) > UtilsRender.RENDERING_WIDTH_DIVIDER + 0.5)) {
@@ -185,7 +185,7 @@ public class RoadPieceDivider extends RoadPiece {
             public void mouseClicked(MouseEvent e) {
                 // Since the roadPieces get replaced each time a tag gets changed, find the correct NEW
                 // divider in the same place as this divider. This will allow each pop-up to be used more than once.
-                RoadRenderer parent = _parent._parent.wayIdToRSR.get(_parent.getWay().getUniqueId());
+                RoadRenderer parent = _parent._parent.getRoadRenderer(_parent.getWay().getUniqueId());
                 if (!(parent instanceof RoadRendererMarked)) return;
                 List<RoadPiece> roadPieces = ((RoadRendererMarked) parent).getRoadPieces(false);
                 for (RoadPiece rp : roadPieces) {
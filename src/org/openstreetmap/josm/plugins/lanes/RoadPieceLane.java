@@ -1,7 +1,6 @@
 package org.openstreetmap.josm.plugins.lanes;
 
 import org.openstreetmap.josm.data.coor.LatLon;
-import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MapView;
 
@@ -284,18 +283,22 @@ public class RoadPieceLane extends RoadPiece {
     }
 
     private void renderTurnMarkings(Graphics2D g, List<Image> images, boolean overlapImages, double distToFirstMarking, double distBetweenMarkings) {
-        if (_mv.getScale() > 0.5) return; // Don't render turn lane markings when the map is too zoomed out
+        if (DetailLevel.of(_mv.getScale()) != DetailLevel.CLOSE) return; // Don't render turn lane markings when the map is too zoomed out
 
         try {
             String turn = getTurn();
 
             if (turn == null) return;
+            int turns = TurnMarkingAtlas.turnMask(turn);
+            if (turns == 0) return;
+            boolean rightHand = UtilsGeneral.isRightHand(_way);
 
-            for (int h = 0; h < _parent.getAlignments().size(); h++) {
+            List<Polyline> parentAlignments = _parent.getAlignmentLines();
+            for (int h = 0; h < parentAlignments.size(); h++) {
                 // This runs for each sub part of a road (each segment)
-                Way parentAlignment = _parent.getAlignments().get(h);
-                double alignmentLen = _parent.getAlignment().getLength();
-                double swt = Math.max(_parent.segmentStartPoints.get(h), 0)/_parent.getAlignment().getLength();
+                Polyline parentAlignment = parentAlignments.get(h);
+                double alignmentLen = _parent.getAlignmentLine().getLength();
+                double swt = Math.max(_parent.segmentStartPoints.get(h), 0)/alignmentLen;
                 double ewt = Math.min(_parent.segmentEndPoints.get(h), alignmentLen) / alignmentLen;
                 double offsetStart = swt*_offsetEnd + (1-swt)*_offsetStart;
                 double offsetEnd = ewt*_offsetEnd + (1-ewt)*_offsetStart;
@@ -304,24 +307,24 @@ public class RoadPieceLane extends RoadPiece {
 
                 int numDrawn = 0;
                 double distSoFar = 0;
-                Way lanePos = UtilsSpatial.getParallel(parentAlignment, offsetStart, offsetEnd, false,
+                Polyline lanePos = UtilsSpatial.getParallel(parentAlignment, offsetStart, offsetEnd, false,
                         h==0 ? _parent.otherStartAngle : Double.NaN,
-                        h==_parent.getAlignments().size()-1 ? _parent.otherEndAngle : Double.NaN);
+                        h==parentAlignments.size()-1 ? _parent.otherEndAngle : Double.NaN);
 
-                for (int i = 0; i < lanePos.getNodesCount() - 1; i++) {
-                    double distThisTime = lanePos.getNode(i).getCoor().greatCircleDistance(lanePos.getNode(i + 1).getCoor());
-                    double angle = lanePos.getNode(i).getCoor().bearing(lanePos.getNode(i + 1).getCoor());
+                for (int i = 0; i < lanePos.size() - 1; i++) {
+                    double distThisTime = lanePos.segmentLength(i);
+                    double angle = lanePos.bearing(i, i + 1);
                     if (_direction == -1) angle += Math.PI;
 
                     if (_direction != 0 && distSoFar + distThisTime > UtilsRender.DIST_TO_FIRST_TURN + UtilsRender.DIST_BETWEEN_TURNS * (numDrawn)) {
                         double distIntoSegment = UtilsRender.DIST_TO_FIRST_TURN + UtilsRender.DIST_BETWEEN_TURNS * (numDrawn) - distSoFar;
                         double portionFirst = (distThisTime - distIntoSegment) / distThisTime;
-                        LatLon pos = new LatLon(lanePos.getNode(i).lat() * portionFirst + (lanePos.getNode(i + 1).lat() * (1 - portionFirst)),
-                                lanePos.getNode(i).lon() * portionFirst + (lanePos.getNode(i + 1).lon() * (1 - portionFirst)));
+                        LatLon pos = new LatLon(lanePos.lat(i) * portionFirst + (lanePos.lat(i + 1) * (1 - portionFirst)),
+                                lanePos.lon(i) * portionFirst + (lanePos.lon(i + 1) * (1 - portionFirst)));
                         Point point = _mv.getPoint(pos);
                         double portionStart = (distSoFar + distIntoSegment) / _way.getLength();
                         double width = widthEnd* portionStart + widthStart * (1 - portionStart);
-                        drawTurnMarkingsAt(turn, g, point.x, point.y, width, angle);
+                        drawTurnMarkingsAt(turns, rightHand, g, point.x, point.y, width, angle);
                         distSoFar -= distThisTime;
                         i--;
                         numDrawn++;
@@ -332,14 +335,14 @@ public class RoadPieceLane extends RoadPiece {
                         double portionFirst = (distThisTime - distIntoSegment) / distThisTime;
                         double portionStart = (distSoFar + distIntoSegment) / _way.getLength();
                         double width = widthEnd * portionStart + widthStart * (1 - portionStart) - UtilsRender.RENDERING_WIDTH_DIVIDER * 2;
-                        LatLon pos = new LatLon(lanePos.getNode(i).lat() * portionFirst + (lanePos.getNode(i + 1).lat() * (1 - portionFirst)),
-                                lanePos.getNode(i).lon() * portionFirst + (lanePos.getNode(i + 1).lon() * (1 - portionFirst)));
+                        LatLon pos = new LatLon(lanePos.lat(i) * portionFirst + (lanePos.lat(i + 1) * (1 - portionFirst)),
+                                lanePos.lon(i) * portionFirst + (lanePos.lon(i + 1) * (1 - portionFirst)));
                         LatLon posBack = UtilsSpatial.getLatLonRelative(pos, angle + Math.PI, 0.67 * width);
                         LatLon posFront = UtilsSpatial.getLatLonRelative(pos, angle, 0.67 * width);
                         Point pointBack = _mv.getPoint(posBack);
                         Point pointFront = _mv.getPoint(posFront);
-                        drawTurnMarkingsAt(turn, g, pointBack.x, pointBack.y, width, angle);
-                        drawTurnMarkingsAt(turn, g, pointFront.x, pointFront.y, width, angle + Math.PI);
+                        drawTurnMarkingsAt(turns, rightHand, g, pointBack.x, pointBack.y, width, angle);
+                        drawTurnMarkingsAt(turns, rightHand, g, pointFront.x, pointFront.y, width, angle + Math.PI);
                         distSoFar -= distThisTime;
                         i--;
                         numDrawn++;
@@ -350,36 +353,16 @@ public class RoadPieceLane extends RoadPiece {
         } catch (Exception ignored) {} // Just don't render the turn markings if they can't be rendered.
     }
 
-    private void drawTurnMarkingsAt(String turn, Graphics2D g, int x, int y, double width, double rotationRadians) {
-        // Ensure that this road marking is within 30 ft of the map before rendering.
-        BBox bBox = _mv.getRealBounds().toBBox();
-        int outside = (int) (width/_mv.getDist100Pixel());
-        if ((x < _mv.getPoint(bBox.getTopLeft()).x - outside) || (x > _mv.getPoint(bBox.getBottomRight()).x + outside) ||
-                (y < _mv.getPoint(bBox.getTopLeft()).y - outside) || (y > _mv.getPoint(bBox.getBottomRight()).y + outside)) return;
+    private void drawTurnMarkingsAt(int turns, boolean rightHand, Graphics2D g, int x, int y, double width, double rotationRadians) {
+        int size = (int) (width * 100 / _mv.getDist100Pixel()) + 1;
 
-        int offset = (int) (width * 50 / _mv.getDist100Pixel());
-        x -= offset;
-        y -= offset;
-
-        List<String> turns = new ArrayList<>();
-        Collections.addAll(turns, turn.split(";"));
-        boolean lr = _mv.getScale() > 0.2;
-        if (turns.contains("left")) drawImageAt(g, lr ? UtilsRender.lr_left : UtilsRender.left, x, y, width, rotationRadians);
-        if (turns.contains("right")) drawImageAt(g, lr ? UtilsRender.lr_right : UtilsRender.right, x, y, width, rotationRadians);
-        if (turns.contains("slight_left")) drawImageAt(g, lr ? UtilsRender.lr_slightLeft : UtilsRender.slightLeft, x, y, width, rotationRadians);
-        if (turns.contains("slight_right")) drawImageAt(g, lr ? UtilsRender.lr_slightRight : UtilsRender.slightRight, x, y, width, rotationRadians);
-        if (turns.contains("through")) drawImageAt(g, lr ? UtilsRender.lr_through : UtilsRender.through, x, y, width, rotationRadians);
-        if (turns.contains("merge_to_left")) drawImageAt(g, lr ? UtilsRender.lr_mergeLeft : UtilsRender.mergeLeft, x, y, width, rotationRadians);
-        if (turns.contains("merge_to_right")) drawImageAt(g, lr ? UtilsRender.lr_mergeRight : UtilsRender.mergeRight, x, y, width, rotationRadians);
-        if (turns.contains("reverse")) drawImageAt(g, UtilsGeneral.isRightHand(_way) ? (lr ? UtilsRender.lr_uTurnLeft : UtilsRender.uTurnLeft) :
-                (lr ? UtilsRender.lr_uTurnRight : UtilsRender.uTurnRight), x, y, width, rotationRadians);
-    }
+        // Ensure that this road marking can reach the area being painted before rendering.
+        Rectangle clip = g.getClipBounds();
+        if (clip != null && !clip.intersects(x - size, y - size, 2 * size, 2 * size)) return;
 
-    private void drawImageAt(Graphics2D g, Image image, int x, int y, double width, double rotationRadians) {
-        int size = (int) (width * 100 / _mv.getDist100Pixel()) + 1;
-        g.rotate(rotationRadians, x+size/2, y+size/2);
-        g.drawImage(image, x, y, size, size, null); //rotate(toBufferedImage(image), rotationRadians)
-        g.rotate(-rotationRadians, x+size/2, y+size/2);
+        int offset = (int) (width * 50 / _mv.getDist100Pixel());
+        TurnMarkingAtlas.draw(g, turns, _mv.getScale() > 0.2, rightHand,
+                x - offset + size/2, y - offset + size/2, size, rotationRadians);
     }
 
     public BufferedImage toBufferedImage(Image img) {
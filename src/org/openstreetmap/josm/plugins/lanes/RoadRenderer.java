@@ -4,13 +4,19 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
-import org.openstreetmap.josm.gui.util.GuiHelper;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class RoadRenderer {
 
@@ -19,31 +25,49 @@ public abstract class RoadRenderer {
     protected final Way _way;
     protected final MapView _mv;
     protected final LaneMappingMode _parent;
+    protected final RendererSet _set; // The set this renderer belongs to, used for finding neighbouring renderers.
 
     // Asphalt outline as rendered on map.
     protected List<Way> _asphalt;
+    private List<Polyline> _asphaltSimplified; // Same outline, simplified for DetailLevel.MID.
 
     // Store "angle" of roads at endpoints.  If there isn't an obvious continuation road, these remain NaN.
     public double otherStartAngle = Double.NaN;
     public double otherEndAngle = Double.NaN;
 
-    // Store gaps added by intersections.
+    // Parts of the road left to draw between the gaps cut out by intersections.  Replaced by setRenderingGaps(), never modified.
     List<Double> segmentStartPoints; // Measured in meters from start.
     List<Double> segmentEndPoints; // Anything greater than or equal to way length means end.
 
+    // Geometry already calculated, cleared whenever the gaps or end angles change.  Guarded by _edges.
+    private final Map<Integer, Way> _edges = new HashMap<>(); // By segment*2 (+1 for right side).
+    private final Map<Integer, Polyline> _edgeLines = new HashMap<>();
+    private Polyline _alignmentLine;
+    private List<Polyline> _alignmentLines;
+    private List<Way> _alignments;
+    private final Map<ScreenLine.Key, ScreenLine> _screenLines = new HashMap<>(); // Dividers, road edges, etc.
+    private int _edgesVersion = 0;
+
+    // Endpoints of _way when this renderer was built, so neighbours can still be found after the way's nodes change.
+    private final Node _firstNode;
+    private final Node _lastNode;
+
     // </editor-fold>
 
-    protected RoadRenderer(Way w, MapView mv, LaneMappingMode parent) {
+    protected RoadRenderer(Way w, MapView mv, RendererSet set) {
         _way = w;
         _mv = mv;
-        _parent = parent;
+        _parent = set.getMode();
+        _set = set;
+        _firstNode = w.getNodesCount() == 0 ? null : w.getNode(0);
+        _lastNode = w.getNodesCount() == 0 ? null : w.getNode(w.getNodesCount()-1);
 
         // Set start/end segments.
         resetRenderingGaps();
     }
 
     // Static constructor used by LaneMappingMode to create RoadRenderers
-    public static RoadRenderer buildRoadRenderer(Way w, MapView mv, LaneMappingMode parent) {
+    public static RoadRenderer buildRoadRenderer(Way w, MapView mv, RendererSet set) {
         // Ensure the way is some type of road renderer.
         if (!wayHasRoadTags(w) && !wayHasLaneTags(w)) return null;
         if (w.getNodesCount() == 0 || !w.isVisible()) return null;
@@ -51,14 +75,14 @@ public abstract class RoadRenderer {
 
         // Figure out type and return.
         if (w.hasTag("lane_markings", "no") || w.hasTag("lanes", "1.5")) {
-            return new RoadRendererUnmarked(w, mv, parent);
+            return new RoadRendererUnmarked(w, mv, set);
 
         } else if (wayHasLaneTags(w)) {
-            RoadRendererMarked mrr = new RoadRendererMarked(w, mv, parent);
-            return mrr._isValid ? mrr : new RoadRendererUntagged(w, mv, parent, false);
+            RoadRendererMarked mrr = new RoadRendererMarked(w, mv, set);
+            return mrr._isValid ? mrr : new RoadRendererUntagged(w, mv, set, false);
 
         } else {
-            return new RoadRendererUntagged(w, mv, parent, true);
+            return new RoadRendererUntagged(w, mv, set, true);
         }
     }
 
@@ -66,14 +90,44 @@ public abstract class RoadRenderer {
 
     abstract void render(Graphics2D g);
 
+    // Renders this road the way it should look at the input level of detail.
+    void render(Graphics2D g, DetailLevel level) {
+        if (level == DetailLevel.FAR) {
+            renderFar(g);
+        } else {
+            render(g);
+        }
+    }
+
+    // DetailLevel.FAR: the whole road as one simplified line, as wide as the road (at least 2 pixels), coloured by lane count.
+    private void renderFar(Graphics2D g) {
+        g.setStroke(UtilsRender.getCustomStroke(getFarWidthPixels(), 0, 0, 0));
+        g.setColor(UtilsRender.laneCountColor(getLaneCount()));
+        getScreenLine(0, 0, DetailLevel.FAR).draw(g, _mv);
+    }
+
+    private double getFarWidthPixels() {
+        double pixelsPerMeter = 100.0 / _mv.getDist100Pixel();
+        return Math.max(2, pixelsPerMeter * (getWidth(true) + getWidth(false)) / 2);
+    }
+
+    // Whether e is on this road as it's drawn: on its line at DetailLevel.FAR, otherwise inside the asphalt.
+    boolean containsClick(MouseEvent e) {
+        if (DetailLevel.of(_mv.getScale()) == DetailLevel.FAR) {
+            return getScreenLine(0, 0, DetailLevel.FAR).isNear(e.getPoint(), getFarWidthPixels() / 2, _mv);
+        }
+        return UtilsClicksAndPopups.mouseEventIsInside(e, getAsphaltOutlinePixels(), _mv);
+    }
+
     abstract void renderPopup(Graphics2D g, Point center, double bearing, double distOut, double pixelsPerMeter);
 
     protected void renderAsphalt(Graphics2D g, Color color) {
         g.setColor(color);
-        for (Polygon p : getAsphaltOutlinePixels()) g.fillPolygon(p);
-
-        g.setColor(new Color(0, 0, 0, 0));
-        g.setStroke(GuiHelper.getCustomizedStroke("0"));
+        if (DetailLevel.of(_mv.getScale()) == DetailLevel.CLOSE) {
+            for (Polygon p : getAsphaltOutlinePixels()) g.fillPolygon(p);
+        } else {
+            for (Polyline p : getAsphaltSimplified()) g.fillPolygon(UtilsRender.polylineToPolygon(p, _mv));
+        }
     }
 
     protected void renderAsphaltPopup(Graphics2D g, Color color, Point center, double bearing, double distOut, double pixelsPerMeter) {
@@ -87,9 +141,6 @@ public abstract class RoadRenderer {
 
         g.fillPolygon(new int[] {startLeft.x, startRight.x, endRight.x, endLeft.x, startLeft.x},
                 new int[] {startLeft.y, startRight.y, endRight.y, endLeft.y, startLeft.y}, 5);
-
-        g.setColor(new Color(0, 0, 0, 0));
-        g.setStroke(GuiHelper.getCustomizedStroke("0"));
     }
 
     protected void renderRoadEdgesPopup(Graphics2D g, Point center, double bearing, double distOut, double pixelsPerMeter, boolean tagged) {
@@ -110,24 +161,57 @@ public abstract class RoadRenderer {
     }
 
     public List<Polygon> getAsphaltOutlinePixels() {
-        if (_asphalt == null) _asphalt = getAsphaltOutlineCoords();
-
         List<Polygon> output = new ArrayList<>();
-        for (Way asphalt : _asphalt) output.add(UtilsRender.wayToPolygon(asphalt, _mv));
+        for (Way asphalt : getAsphalt()) output.add(UtilsRender.wayToPolygon(asphalt, _mv));
         return output;
     }
 
+    // Cached asphalt outlines, calculated the first time they're painted or clicked.
+    private List<Way> getAsphalt() {
+        List<Way> asphalt = _asphalt;
+        if (asphalt == null) {
+            asphalt = getAsphaltOutlineCoords();
+            _asphalt = asphalt;
+        }
+        return asphalt;
+    }
+
+    private List<Polyline> getAsphaltSimplified() {
+        List<Polyline> asphalt = _asphaltSimplified;
+        if (asphalt == null) {
+            asphalt = new ArrayList<>();
+            double tolerance = DetailLevel.MID.tolerance();
+            for (int i = 0; i < getAlignmentLines().size(); i++) {
+                Polyline left = getEdgeLine(i, false).simplify(tolerance);
+                Polyline right = getEdgeLine(i, true).simplify(tolerance);
+
+                double[] coords = new double[(left.size() + right.size()) * 2];
+                for (int j = 0; j < left.size(); j++) {
+                    coords[2*j] = left.lat(j);
+                    coords[2*j+1] = left.lon(j);
+                }
+                for (int j = 0; j < right.size(); j++) {
+                    coords[2*(left.size()+j)] = right.lat(right.size()-j-1);
+                    coords[2*(left.size()+j)+1] = right.lon(right.size()-j-1);
+                }
+                asphalt.add(Polyline.of(coords));
+            }
+            _asphaltSimplified = asphalt;
+        }
+        return asphalt;
+    }
+
     public List<Way> getAsphaltOutlineCoords() {
         List<Way> output = new ArrayList<>();
-        for (int i = 0; i < getAlignments().size(); i++) {
-            Way left = getEdge(i, false);
-            Way right = getEdge(i, true);
+        for (int i = 0; i < getAlignmentLines().size(); i++) {
+            Polyline left = getEdgeLine(i, false);
+            Polyline right = getEdgeLine(i, true);
 
             List<Node> points = new ArrayList<>();
 
-            for (int j = 0; j < left.getNodesCount(); j++) points.add(left.getNode(j));
-            for (int j = 0; j < right.getNodesCount(); j++) points.add(right.getNode(right.getNodesCount()-j-1));
-            points.add(left.getNode(0));
+            for (int j = 0; j < left.size(); j++) points.add(new Node(left.getCoor(j)));
+            for (int j = 0; j < right.size(); j++) points.add(new Node(right.getCoor(right.size()-j-1)));
+            points.add(points.get(0));
 
             Way thisSegment = new Way();
             thisSegment.setNodes(points);
@@ -148,24 +232,74 @@ public abstract class RoadRenderer {
     // This version isn't guaranteed to have any tags.
     abstract Way getAlignment();
 
+    // The alignment as a polyline, for the geometry code.
+    Polyline getAlignmentLine() {
+        int version;
+        synchronized (_edges) {
+            if (_alignmentLine != null) return _alignmentLine;
+            version = _edgesVersion;
+        }
+        Polyline output = Polyline.of(getAlignment());
+        synchronized (_edges) {
+            if (version == _edgesVersion) _alignmentLine = output;
+        }
+        return output;
+    }
+
     // For getting alignment split up by road segment (alignment minus the gaps).
-    public List<Way> getAlignments() {
+    List<Polyline> getAlignmentLines() {
+        int version;
+        synchronized (_edges) {
+            if (_alignmentLines != null) return _alignmentLines;
+            version = _edgesVersion;
+        }
+
         // Returns sub parts of alignment.
-        List<Way> output = new ArrayList<>();
+        Polyline alignment = getAlignmentLine();
+        List<Polyline> output = new ArrayList<>();
         for (int i = 0; i < segmentStartPoints.size(); i++) {
             double start = Math.max(segmentStartPoints.get(i), 0);
-            double end = Math.min(segmentEndPoints.get(i), getAlignment().getLength());
+            double end = Math.min(segmentEndPoints.get(i), alignment.getLength());
             if (end-start < 0.01) continue;
-            Way alignmentPart = UtilsSpatial.getSubPart(getAlignment(), start, end);
+            Polyline alignmentPart = UtilsSpatial.getSubPart(alignment, start, end);
 
             if (alignmentPart != null && alignmentPart.getLength() > 0.01) {
                 output.add(alignmentPart);
             }
         }
+        output = Collections.unmodifiableList(output);
+
+        synchronized (_edges) {
+            if (version == _edgesVersion) _alignmentLines = output;
+        }
+        return output;
+    }
+
+    public List<Way> getAlignments() {
+        int version;
+        synchronized (_edges) {
+            if (_alignments != null) return _alignments;
+            version = _edgesVersion;
+        }
+        List<Way> output = new ArrayList<>();
+        for (Polyline alignmentPart : getAlignmentLines()) output.add(alignmentPart.toWay());
+        output = Collections.unmodifiableList(output);
+        synchronized (_edges) {
+            if (version == _edgesVersion) _alignments = output;
+        }
         return output;
     }
 
 
+    // Number of lanes from the lanes tag, 0 if it's missing or not a whole number.
+    int getLaneCount() {
+        try {
+            return Integer.parseInt(_way.get("lanes"));
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
     // Width in meters, includes extra Utils.RENDERING_WIDTH_DIVIDER amount. (for a 7 m wide road, this returns 7.6)
     abstract double getWidth(boolean start);
 
@@ -174,60 +308,203 @@ public abstract class RoadRenderer {
         return getWidth(start)/2;
     }
 
+    static final int EDGE_WINDOW_SEGMENTS = 5; // As far as UtilsSpatial.intersect() looks when trimming.
+    static final double EDGE_WINDOW_METERS = 150; // Room past that for the set backs and curves of intersections.
+
     // Get edge methods.  Return edge of rendering, aka like 0.3 meters more than actual edge.
-    abstract Way getEdge(int segment /* -1 for every segment, else specific iD for segment */, boolean right);
+    // Edges are calculated once per segment and side, then reused until invalidateEdges() is called.
+    public Way getEdge(int segment /* -1 for every segment, else specific iD for segment */, boolean right) {
+        Integer key = segment*2 + (right ? 1 : 0);
+        int version;
+        synchronized (_edges) {
+            Way edge = _edges.get(key);
+            if (edge != null) return edge;
+            version = _edgesVersion;
+        }
+        Polyline line = getEdgeLine(segment, right);
+        Way edge = line == null ? null : line.toWay();
+        synchronized (_edges) {
+            if (version == _edgesVersion && edge != null) _edges.putIfAbsent(key, edge);
+        }
+        return edge;
+    }
 
+    // Same as getEdge, but without converting to a Way.
+    Polyline getEdgeLine(int segment, boolean right) {
+        Integer key = segment*2 + (right ? 1 : 0);
+        int version;
+        synchronized (_edges) {
+            Polyline edge = _edgeLines.get(key);
+            if (edge != null) return edge;
+            version = _edgesVersion;
+        }
+        Polyline edge = computeEdge(segment, right);
+        synchronized (_edges) {
+            if (version == _edgesVersion && edge != null) _edgeLines.putIfAbsent(key, edge);
+        }
+        return edge;
+    }
+
+    Polyline computeEdge(int segment, boolean right) { return computeEdge(segment, right, 0, Integer.MAX_VALUE); }
+
+    // Points from to to (inclusive) of the edge, clamped to the ends of the alignment part.
+    abstract Polyline computeEdge(int segment, boolean right, int from, int to);
+
+    /**
+     * Part of the edge of the whole road, from node of the alignment out EDGE_WINDOW_SEGMENTS way segments and then
+     * EDGE_WINDOW_METERS more, which covers everything an intersection uses.  Only that part is calculated unless
+     * the whole edge already has been, so building an intersection doesn't depend on the length of its roads.
+     * @param forward Whether the part goes towards the end of the way from node, or towards the start.
+     * @return The part, in the same direction as the way.
+     */
+    Polyline getEdgeLineNear(int node, boolean forward, boolean right) {
+        Polyline alignment = getAlignmentLine();
+        int n = alignment.size();
+        node = Math.max(0, Math.min(node, n-1));
+        int from, to;
+        if (forward) {
+            from = node;
+            int far = Math.min(node + EDGE_WINDOW_SEGMENTS, n-1);
+            to = alignment.indexAfter(alignment.distanceTo(far) + EDGE_WINDOW_METERS, far);
+        } else {
+            to = node;
+            int far = Math.max(node - EDGE_WINDOW_SEGMENTS, 0);
+            from = alignment.indexAfter(alignment.distanceTo(far) - EDGE_WINDOW_METERS, 0) - 1;
+        }
+        from = Math.max(from, 0);
+        to = Math.min(to, n-1);
 
-    // IntersectionRenderers add gaps where they rendered so the RoadRenderer knows not to render there.
-    public synchronized void addRenderingGap(int from, int to) {
-        addRenderingGap(UtilsSpatial.nodeIdToDist(getAlignment(), from), UtilsSpatial.nodeIdToDist(getAlignment(), to));
+        synchronized (_edges) {
+            Polyline whole = _edgeLines.get(-2 + (right ? 1 : 0));
+            if (whole != null) return whole.subPart(from, to);
+        }
+        if (from == 0 && to == n-1) return getEdgeLine(-1, right);
+        return computeEdge(-1, right, from, to);
     }
 
-    public synchronized void addRenderingGap(double from, double to) {
-        double startGap = Math.max(Math.min(from, to), 0);
-        double endGap = Math.min(Math.max(from, to), getAlignment().getLength());
-        for (int i = 0; i < segmentStartPoints.size(); i++) {
-            double startSegment = segmentStartPoints.get(i);
-            double endSegment = segmentEndPoints.get(i);
-            if (endGap < endSegment && startGap > startSegment && endGap > startSegment && startGap < endSegment) { // completely inside
-                // Add new end at min, new start at max
-                segmentEndPoints.add(i, startGap);
-                segmentStartPoints.add(i+1, endGap);
-                return; // To avoid problems.
-            } else if (endGap < endSegment && startGap <= startSegment && endGap > startSegment) { // inside start half
-                segmentStartPoints.set(i, endGap);
-                return;
-            } else if (endGap >= endSegment && startGap > startSegment && startGap < endSegment) { // inside end half
-                segmentEndPoints.set(i, startGap);
-            } else if (endGap >= endSegment && startGap <= startSegment) { // Outside, containing this range.
-                // Remove this range.
-                segmentEndPoints.remove(i);
-                segmentStartPoints.remove(i);
-                i--;
+    // A line drawn along this road (divider, road edge, ...), offset from the alignment.  Reused like the edges are.
+    // At DetailLevel.FAR this is the whole alignment, without gaps or offsets.
+    ScreenLine getScreenLine(double offsetStart, double offsetEnd, DetailLevel level) {
+        ScreenLine.Key key = new ScreenLine.Key(offsetStart, offsetEnd, level);
+        int version;
+        synchronized (_edges) {
+            ScreenLine line = _screenLines.get(key);
+            if (line != null) return line;
+            version = _edgesVersion;
+        }
+        List<Polyline> parts;
+        if (level == DetailLevel.FAR) {
+            parts = Collections.singletonList(getAlignmentLine().simplify(level.tolerance()));
+        } else {
+            parts = UtilsRender.getRoadLineParts(this, offsetStart, offsetEnd);
+            if (level == DetailLevel.MID) parts.replaceAll(p -> p.simplify(level.tolerance()));
+        }
+        ScreenLine line = new ScreenLine(parts);
+        synchronized (_edges) {
+            if (version == _edgesVersion) {
+                ScreenLine existing = _screenLines.putIfAbsent(key, line);
+                if (existing != null) return existing;
             }
         }
+        return line;
+    }
+
+    // Forgets every edge calculated so far, must be called whenever anything computeEdge() depends on changes.
+    protected void invalidateEdges() {
+        synchronized (_edges) {
+            _edges.clear();
+            _edgeLines.clear();
+            _screenLines.clear();
+            _alignmentLines = null;
+            _alignments = null;
+            _edgesVersion++;
+        }
         _asphalt = null;
+        _asphaltSimplified = null;
+    }
+
+    // Same as invalidateEdges, for when getAlignment() itself has changed too.
+    protected void invalidateAlignment() {
+        synchronized (_edges) {
+            _alignmentLine = null;
+        }
+        invalidateEdges();
+    }
 
-        // Find any segments that are less than 0.1 meters long, and clean them up.
-        for (int i = segmentStartPoints.size()-1; i > 0; i--) {
-            if (segmentEndPoints.get(i) - segmentStartPoints.get(i) < 0.1) {
-                segmentStartPoints.remove(i);
-                segmentEndPoints.remove(i);
+
+    /**
+     * Replaces the gaps cut out of this road with the input ones, which RendererSet collects from every intersection
+     * on the road once they're all built.  The parts left to draw become new lists, which are never modified.
+     * @param gaps Pairs of distances in meters from the start of the alignment, in any order and possibly overlapping.
+     */
+    public void setRenderingGaps(Collection<double[]> gaps) {
+        if (gaps.isEmpty()) {
+            resetRenderingGaps();
+            return;
+        }
+        double length = getAlignmentLine().getLength();
+        List<double[]> sorted = new ArrayList<>();
+        for (double[] gap : gaps) {
+            double startGap = Math.max(Math.min(gap[0], gap[1]), 0);
+            double endGap = Math.min(Math.max(gap[0], gap[1]), length);
+            if (endGap > startGap) sorted.add(new double[] {startGap, endGap});
+        }
+        sorted.sort(Comparator.comparingDouble(gap -> gap[0]));
+
+        // Whatever isn't in a gap gets drawn, except for bits less than 0.1 meters long.
+        List<Double> starts = new ArrayList<>();
+        List<Double> ends = new ArrayList<>();
+        double from = 0;
+        for (double[] gap : sorted) {
+            if (gap[0] - from >= 0.1) {
+                starts.add(from);
+                ends.add(gap[0]);
             }
-        }    }
+            from = Math.max(from, gap[1]);
+        }
+        if (length - from >= 0.1 || sorted.isEmpty()) {
+            starts.add(from);
+            ends.add(Math.max(length, _way.getLength()) + 100);
+        }
+
+        setSegments(starts, ends);
+    }
 
     public void resetRenderingGaps() {
-        segmentStartPoints = new ArrayList<>();
-        segmentStartPoints.add(0.0);
-        segmentEndPoints = new ArrayList<>();
-        segmentEndPoints.add(_way.getLength() + 100);
-        _asphalt = null;
+        setSegments(Collections.singletonList(0.0), Collections.singletonList(_way.getLength() + 100));
+    }
+
+    // Geometry only has to be recalculated if the parts to draw actually changed.
+    private void setSegments(List<Double> starts, List<Double> ends) {
+        synchronized (_edges) {
+            if (starts.equals(segmentStartPoints) && ends.equals(segmentEndPoints)) return;
+            segmentStartPoints = Collections.unmodifiableList(starts);
+            segmentEndPoints = Collections.unmodifiableList(ends);
+        }
+        invalidateEdges();
     }
 
 
     public void updateEndAngles() {
         getOtherAngle(true);
         getOtherAngle(false);
+        invalidateEdges();
+    }
+
+    // Forgets the end angles so they get recalculated from whatever roads are connected now.
+    // updateEndAngles() already clears the geometry that depends on them.
+    public void resetEndAngles() {
+        otherStartAngle = Double.NaN;
+        otherEndAngle = Double.NaN;
+        updateEndAngles();
+    }
+
+    // The endpoint nodes of the way at the time this renderer was built.
+    public List<Node> getEndNodes() {
+        List<Node> output = new ArrayList<>();
+        if (_firstNode != null) output.add(_firstNode);
+        if (_lastNode != null && _lastNode != _firstNode) output.add(_lastNode);
+        return output;
     }
 
     public double getOtherAngle(boolean start) {
@@ -250,34 +527,25 @@ public abstract class RoadRenderer {
         Way otherWay = null;
         boolean otherWayStartsHere = false;
 
-        // Ensure the node only shows up once in this way:
+        // Ensure the node only shows up once in this way, and that there is only one other way, which the node
+        // shows up in only once, at one of its endpoints.
+        NodeAdjacencyIndex.Adjacency adjacency = _set.getAdjacency().get(pivot);
         int connectionsThisWay = 0;
-        for (Node n : _way.getNodes()) {
-            if (n.getUniqueId() == pivot.getUniqueId()) {
+        Set<Long> otherWays = new HashSet<>();
+        for (int i = 0; adjacency != null && i < adjacency.size(); i++) {
+            Way w = adjacency.getWay(i);
+            if (w.getUniqueId() == _way.getUniqueId()) {
                 connectionsThisWay++;
+                continue;
             }
+            if (!otherWays.add(w.getUniqueId())) somethingIsNotValid = true; // Shows up more than once in w.
+            if (!adjacency.isEndpoint(i)) somethingIsNotValid = true;
+            RoadRenderer other = _set.wayIdToRSR.get(w.getUniqueId());
+            otherWay = other == null ? null : other.getAlignment();
+            otherWayStartsHere = adjacency.getIndex(i) == 0;
         }
+        numValidWays = otherWays.size();
         if (connectionsThisWay != 1) somethingIsNotValid = true;
-
-        // Ensure that there is only one other way, and that the node shows up only once in that way.
-        for (Way w : pivot.getParentWays()) {
-            if (w.getUniqueId() == _way.getUniqueId() || !_parent.wayIdToRSR.containsKey(w.getUniqueId())) continue;
-            otherWay = _parent.wayIdToRSR.get(w.getUniqueId()).getAlignment();
-            numValidWays++;
-            // Check to ensure that pivot is only part of w at one of the endpoints.
-            int numConnections = 0;
-            for (int i = 0; i < w.getNodesCount(); i++) {
-                if (w.getNode(i).getUniqueId() != pivot.getUniqueId()) continue;
-                numConnections++;
-                if (i!=0 && i!=w.getNodesCount()-1) {
-                    somethingIsNotValid = true;
-                }
-                otherWayStartsHere = i==0;
-            }
-            if (numConnections > 1) {
-                somethingIsNotValid = true;
-            }
-        }
         if (numValidWays != 1 || otherWay == null) {
             somethingIsNotValid = true;
         }
@@ -311,18 +579,11 @@ public abstract class RoadRenderer {
         // Ensure it was a left click:
         if (!SwingUtilities.isLeftMouseButton(e)) return;
 
-        // Ensure event is inside of rendered asphalt:
-        boolean inside = false;
-        for (Polygon p : getAsphaltOutlinePixels()) {
-            if (p.contains(e.getPoint())) {
-                inside = true;
-                break;
-            }
-        }
-        if (!inside) return;
+        // Ensure event is inside of the rendered road:
+        if (!containsClick(e)) return;
 
         // Set selected
-        MainApplication.getLayerManager().getActiveData().setSelected(_parent.wayIdToRSR.get(_way.getUniqueId()).getWay());
+        MainApplication.getLayerManager().getActiveData().setSelected(_set.wayIdToRSR.get(_way.getUniqueId()).getWay());
 
         // Make Pop-up
         UtilsClicksAndPopups.displayPopup(new LaneLayoutPopup(this), e, _mv, getWay(), _parent);
@@ -4,10 +4,10 @@ import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.UndoRedoHandler;
-import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.tools.Logging;
 
 import javax.swing.*;
 import java.awt.*;
@@ -21,6 +21,7 @@ public class RoadRendererMarked extends RoadRenderer {
 
     private Way _outline;
     protected Way _alignment;
+    private RoadLayoutCache.Layout _layout; // Shared with other renderers of the same way, see RoadLayoutCache.
 
     public static String selected = "";
 
@@ -39,10 +40,10 @@ public class RoadRendererMarked extends RoadRenderer {
 
     // </editor-fold>
 
-    protected RoadRendererMarked(Way w, MapView mv, LaneMappingMode parent) {
-        super(w, mv, parent);
+    protected RoadRendererMarked(Way w, MapView mv, RendererSet set) {
+        super(w, mv, set);
 
-        try { createRoadLayout(); } catch (Exception e) { _isValid = false; _alignment = w; }
+        try { createRoadLayout(); } catch (Exception e) { _isValid = false; _alignment = w; _layout = null; }
     }
 
     // <editor-fold defaultstate="collapsed" desc="Methods for rendering">
@@ -272,14 +273,27 @@ public class RoadRendererMarked extends RoadRenderer {
 
 
     private void getPlacementInformation() {
+        // Reuse the placement from an earlier renderer if the way and its end angles haven't changed since.
+        _layout = RoadLayoutCache.get(_way, otherStartAngle, otherEndAngle);
+        if (_layout != null) {
+            _offsetToLeftStart = _layout.offsetToLeftStart;
+            _offsetToLeftEnd = _layout.offsetToLeftEnd;
+            _alignment = _layout.alignment;
+            return;
+        }
+
         _offsetToLeftStart = getPlacementAt(true, false);
         _offsetToLeftEnd = getPlacementAt(false, false);
         if (Double.isNaN(_offsetToLeftEnd)) {
-            JOptionPane.showMessageDialog(MainApplication.getMainFrame(), "End is NaN");
+            Logging.warn("Lanes: placement at the end of way " + _way.getUniqueId() + " is NaN");
         }
         double placementDiff = getPlacementAt(false, true) - getPlacementAt(true, true);
         _alignment = UtilsSpatial.getParallel(_way, 0, placementDiff, true, otherStartAngle, otherEndAngle);
         _offsetToLeftEnd -= placementDiff;
+        if (_alignment != null && _alignment != _way) { // Never keep the way itself in the cache.
+            _layout = RoadLayoutCache.put(_way, otherStartAngle, otherEndAngle,
+                    new RoadLayoutCache.Layout(_offsetToLeftStart, _offsetToLeftEnd, _alignment));
+        }
     }
 
     private double getPlacementAt(boolean start, boolean ignoreWidthTags) {
@@ -546,7 +560,13 @@ public class RoadRendererMarked extends RoadRenderer {
     }
 
     @Override
-    public Way getEdge(int segment /* can be -1 for all */, boolean right) {
+    Polyline computeEdge(int segment /* can be -1 for all */, boolean right, int from, int to) {
+        // The whole-road edges only depend on the layout, so they can come from the cache too.
+        if (segment < 0 && _layout != null) {
+            Polyline cached = _layout.getEdge(right);
+            if (cached != null) return cached.subPart(from, to);
+        }
+
         // Get offset for this side at start/end.
         double offsetStart, offsetEnd;
         if (right) {
@@ -558,29 +578,31 @@ public class RoadRendererMarked extends RoadRenderer {
         }
 
         // Get alignment part.
-        Way alignmentPart = (segment < 0) ? getAlignment() : getAlignments().get(segment);
+        Polyline alignment;
+        try {
+            alignment = getAlignmentLine();
+        } catch (NullPointerException e) {
+            throw new RuntimeException("way # " + _way.getUniqueId() + " has null nodes");
+        }
+        Polyline alignmentPart = (segment < 0) ? alignment : getAlignmentLines().get(segment);
 
         // Get offsets for the specific alignment part.
-        double swt = (segmentStartPoints.size() == 0 || segment < 1) ? 0 : (Math.max(segmentStartPoints.get(segment), 0)/getAlignment().getLength());
+        double swt = (segmentStartPoints.size() == 0 || segment < 1) ? 0 : (Math.max(segmentStartPoints.get(segment), 0)/alignment.getLength());
         double startOffset = swt*offsetEnd + (1-swt)*offsetStart;
-        double ewt = (segmentEndPoints.size() == 0 || segment < 0) ? 1 : (Math.min(segmentEndPoints.get(segment), getAlignment().getLength())/getAlignment().getLength());
+        double ewt = (segmentEndPoints.size() == 0 || segment < 0) ? 1 : (Math.min(segmentEndPoints.get(segment), alignment.getLength())/alignment.getLength());
         double endOffset = ewt*offsetEnd + (1-ewt)*offsetStart;
 
         // Generate parallel way.
-        for (Node i : getAlignment().getNodes()) {
-            if (i == null || !i.isLatLonKnown()) {
-                throw new RuntimeException("way # " + _way.getUniqueId() + " has null nodes");
-            }
-        }
-        Way output = UtilsSpatial.getParallel(alignmentPart, startOffset, endOffset, false,
+        Polyline output = UtilsSpatial.getParallel(alignmentPart, from, to, startOffset, endOffset,
                 (segment < 0 || segmentStartPoints.get(segment) < 0.1) ? otherStartAngle : Double.NaN,
-                (segment < 0 || segmentEndPoints.get(segment) > getAlignment().getLength()-0.1) ? otherEndAngle : Double.NaN);
-        for (Node i : output.getNodes()) {
-            if (i == null || !i.isLatLonKnown()) {
+                (segment < 0 || segmentEndPoints.get(segment) > alignment.getLength()-0.1) ? otherEndAngle : Double.NaN);
+        for (int i = 0; i < output.size(); i++) {
+            if (Double.isNaN(output.lat(i)) || Double.isNaN(output.lon(i))) {
                 throw new RuntimeException("way # " + _way.getUniqueId() + " parallel, offsets " + startOffset + ", " +
                         endOffset + ", offsetStart = " + offsetStart + ", offsetEnd = " + offsetEnd + ", swt = "  + swt + ", ewt = " + ewt);
             }
         }
+        if (segment < 0 && _layout != null && output.size() == alignmentPart.size()) _layout.setEdge(right, output);
         return output;
     }
 
@@ -592,8 +614,10 @@ public class RoadRendererMarked extends RoadRenderer {
             otherEndAngle = getOtherAngle(false);
             getPlacementInformation();
         } else {
+            _layout = null;
             _alignment = getWay();
         }
+        invalidateAlignment();
     }
 
     // </editor-fold>
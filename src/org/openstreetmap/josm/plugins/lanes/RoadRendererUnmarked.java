@@ -7,8 +7,8 @@ import java.awt.*;
 
 public class RoadRendererUnmarked extends RoadRenderer {
 
-    protected RoadRendererUnmarked(Way w, MapView mv, LaneMappingMode parent) {
-        super(w, mv, parent);
+    protected RoadRendererUnmarked(Way w, MapView mv, RendererSet set) {
+        super(w, mv, set);
     }
 
     // <editor-fold defaultstate="collapsed" desc="Rendering">
@@ -44,13 +44,14 @@ public class RoadRendererUnmarked extends RoadRenderer {
     }
 
     @Override
-    public Way getEdge(int segment, boolean rightSide) {
-        Way alignmentPart = (segment < 0) ? getAlignment() : getAlignments().get(segment);
+    Polyline computeEdge(int segment, boolean rightSide, int from, int to) {
+        Polyline alignment = getAlignmentLine();
+        Polyline alignmentPart = (segment < 0) ? alignment : getAlignmentLines().get(segment);
 
         // Calculate start/end offsets for this segment.
-        double swt = Math.max(segmentStartPoints.get(segment < 0 ? 0 : segment), 0)/getAlignment().getLength();
+        double swt = Math.max(segmentStartPoints.get(segment < 0 ? 0 : segment), 0)/alignment.getLength();
         double offsetStart = swt*(getWidth(false)/2) + (1-swt)*(getWidth(true)/2);
-        double ewt = Math.min(segmentEndPoints.get(segment < 0 ? segmentEndPoints.size()-1 : segment), getAlignment().getLength())/getAlignment().getLength();
+        double ewt = Math.min(segmentEndPoints.get(segment < 0 ? segmentEndPoints.size()-1 : segment), alignment.getLength())/alignment.getLength();
         double offsetEnd = ewt*(getWidth(false)/2) + (1-ewt)*(getWidth(true)/2);
 
         // If right side, then the values need to be negative to get same result.
@@ -59,9 +60,9 @@ public class RoadRendererUnmarked extends RoadRenderer {
             offsetEnd = 0 - offsetEnd;
         }
 
-        return UtilsSpatial.getParallel(alignmentPart, offsetStart, offsetEnd, false,
+        return UtilsSpatial.getParallel(alignmentPart, from, to, offsetStart, offsetEnd,
                 (segment < 0 || segmentStartPoints.get(segment) < 0.1) ? otherStartAngle : Double.NaN,
-                (segment < 0 || segmentEndPoints.get(segment) > getAlignment().getLength()-0.1) ? otherEndAngle : Double.NaN);
+                (segment < 0 || segmentEndPoints.get(segment) > alignment.getLength()-0.1) ? otherEndAngle : Double.NaN);
     }
 
     @Override
@@ -10,8 +10,8 @@ import java.awt.*;
 public class RoadRendererUntagged extends RoadRenderer {
     boolean _valid;
 
-    protected RoadRendererUntagged(Way w, MapView mv, LaneMappingMode parent, boolean valid) {
-        super(w, mv, parent);
+    protected RoadRendererUntagged(Way w, MapView mv, RendererSet set, boolean valid) {
+        super(w, mv, set);
         _valid = valid;
     }
 
@@ -42,16 +42,16 @@ public class RoadRendererUntagged extends RoadRenderer {
     }
 
     @Override
-    Way getEdge(int segment, boolean right) {
-        Way alignmentPart = segment < 0 ? getAlignment() : getAlignments().get(segment);
+    Polyline computeEdge(int segment, boolean right, int from, int to) {
+        Polyline alignmentPart = segment < 0 ? getAlignmentLine() : getAlignmentLines().get(segment);
         double offset = ((UtilsGeneral.isOneway(getWay()) ? 0.5 : 1)* UtilsRender.WIDTH_LANES+(UtilsRender.RENDERING_WIDTH_DIVIDER/2))*(right ? -1 : 1);
-        return UtilsSpatial.getParallel(alignmentPart, offset, offset, false,
+        return UtilsSpatial.getParallel(alignmentPart, from, to, offset, offset,
                 (segment < 0 || segmentStartPoints.get(segment) < 0.1) ? otherStartAngle : Double.NaN,
-                (segment < 0 || segmentEndPoints.get(segment) > getAlignment().getLength()-0.1) ? otherEndAngle : Double.NaN);
+                (segment < 0 || segmentEndPoints.get(segment) > getAlignmentLine().getLength()-0.1) ? otherEndAngle : Double.NaN);
     }
 
     private void renderQuestionOrExclamationMarks(Graphics2D g) { // TODO extract part that finds WHERE to draw and merge with other marking drawers.
-        if (_mv.getScale() > 1) return; // Don't render the question marks when the map is too zoomed out
+        if (DetailLevel.of(_mv.getScale()) != DetailLevel.CLOSE) return; // Don't render the question marks when the map is too zoomed out
 
         try {
             for (int h = 0; h < getAlignments().size(); h++) {
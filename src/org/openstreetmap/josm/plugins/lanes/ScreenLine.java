@@ -0,0 +1,139 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.MapView;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/*
+ * ScreenLine - one line along a road (a divider, a road edge, ...) along with where it was last drawn on screen.
+ *
+ * -> The parallel polylines are calculated once (simplified for the DetailLevel), and RoadRenderer drops the whole
+ *    ScreenLine when its gaps or end angles change, so new geometry is only calculated when the data changes.
+ * -> Points are projected once per map scale (and projection), and stored as pixel offsets from the first point of
+ *    each polyline.
+ *    After a pan only that first point is projected again, and the rest of the line is moved by the same amount.
+ */
+
+final class ScreenLine {
+
+    private final List<Polyline> _lines; // One per road segment.
+
+    private double _scale = Double.NaN; // Map scale the offsets below were projected at.
+    private Projection _projection = null; // And the projection they were projected with.
+    private double[][] _dx; // Pixels from the first point of each line to every point.
+    private double[][] _dy;
+
+    private int[][] _x; // Pixel positions as last drawn.
+    private int[][] _y;
+    private double[] _originX; // Where the first point of each line was when _x/_y were filled in.
+    private double[] _originY;
+
+    ScreenLine(List<Polyline> lines) {
+        _lines = lines;
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Keys">
+
+    /** Identifies a line by its offset from the alignment at the start and end of the road, and its level of detail. */
+    static final class Key {
+        private final long _offsetStart;
+        private final long _offsetEnd;
+        private final DetailLevel _level;
+
+        Key(double offsetStart, double offsetEnd, DetailLevel level) {
+            _offsetStart = Double.doubleToLongBits(offsetStart);
+            _offsetEnd = Double.doubleToLongBits(offsetEnd);
+            _level = level;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return _offsetStart == k._offsetStart && _offsetEnd == k._offsetEnd && _level == k._level;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = _offsetStart * 31 + _offsetEnd;
+            return (int) (h ^ (h >>> 32)) * 31 + _level.ordinal();
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Drawing">
+
+    // Draws every segment of the line with the current stroke and colour of g.
+    synchronized void draw(Graphics2D g, MapView mv) {
+        if (mv.getScale() != _scale || ProjectionRegistry.getProjection() != _projection) project(mv);
+
+        for (int i = 0; i < _lines.size(); i++) {
+            if (_x[i].length == 0) continue;
+            Point2D origin = mv.getPoint2D(_lines.get(i).getCoor(0));
+            if (origin.getX() != _originX[i] || origin.getY() != _originY[i]) translate(i, origin);
+            g.drawPolyline(_x[i], _y[i], _x[i].length);
+        }
+    }
+
+    // Whether p is within distance pixels of the line, as it would be drawn now.
+    synchronized boolean isNear(Point p, double distance, MapView mv) {
+        if (mv.getScale() != _scale || ProjectionRegistry.getProjection() != _projection) project(mv);
+
+        for (int i = 0; i < _lines.size(); i++) {
+            if (_x[i].length == 0) continue;
+            Point2D origin = mv.getPoint2D(_lines.get(i).getCoor(0));
+            if (origin.getX() != _originX[i] || origin.getY() != _originY[i]) translate(i, origin);
+            if (_x[i].length == 1 && p.distance(_x[i][0], _y[i][0]) <= distance) return true;
+            for (int j = 1; j < _x[i].length; j++) {
+                if (Line2D.ptSegDist(_x[i][j-1], _y[i][j-1], _x[i][j], _y[i][j], p.x, p.y) <= distance) return true;
+            }
+        }
+        return false;
+    }
+
+    private void project(MapView mv) {
+        int n = _lines.size();
+        _dx = new double[n][];
+        _dy = new double[n][];
+        _x = new int[n][];
+        _y = new int[n][];
+        _originX = new double[n];
+        _originY = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            Polyline line = _lines.get(i);
+            _dx[i] = new double[line.size()];
+            _dy[i] = new double[line.size()];
+            _x[i] = new int[line.size()];
+            _y[i] = new int[line.size()];
+            _originX[i] = Double.NaN; // Forces translate() before the first draw.
+            if (line.size() == 0) continue;
+
+            Point2D first = mv.getPoint2D(line.getCoor(0));
+            for (int j = 0; j < line.size(); j++) {
+                Point2D p = j == 0 ? first : mv.getPoint2D(line.getCoor(j));
+                _dx[i][j] = p.getX() - first.getX();
+                _dy[i][j] = p.getY() - first.getY();
+            }
+        }
+        _scale = mv.getScale();
+        _projection = ProjectionRegistry.getProjection();
+    }
+
+    private void translate(int i, Point2D origin) {
+        for (int j = 0; j < _x[i].length; j++) {
+            _x[i][j] = (int) (origin.getX() + _dx[i][j] + 0.5);
+            _y[i][j] = (int) (origin.getY() + _dy[i][j] + 0.5);
+        }
+        _originX[i] = origin.getX();
+        _originY[i] = origin.getY();
+    }
+
+    // </editor-fold>
+}
@@ -0,0 +1,225 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * SpatialIndex - finds the objects whose bounding box overlaps some area of the map.
+ *
+ * -> Bounding boxes are in EastNorth, so a query with the MapView's ProjectionBounds returns what's on screen.
+ * -> The boxes are packed into an R-tree (Sort-Tile-Recursive), so a query costs O(log n + results).
+ * -> Objects added after packing are kept in a small list that is scanned linearly, and removed objects are
+ *    flagged, until enough of either piles up to make repacking worthwhile.
+ */
+
+public class SpatialIndex<T> {
+
+    // <editor-fold defaultstate="collapsed" desc="Variables">
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final Map<T, Entry<T>> _entries = new HashMap<>();
+    private final List<Entry<T>> _pending = new ArrayList<>(); // Added since last pack, not in the tree yet.
+    private int _removedFromTree = 0; // Entries still in the tree but flagged as removed.
+    private Box _root = null;
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Adding and Removing">
+
+    public void add(T item, double minEast, double minNorth, double maxEast, double maxNorth) {
+        remove(item);
+        Entry<T> e = new Entry<>(item, minEast, minNorth, maxEast, maxNorth);
+        _entries.put(item, e);
+        _pending.add(e);
+    }
+
+    /**
+     * Adds item to the index using the bounding box of a way's nodes.
+     * @param item The object to be returned by queries.
+     * @param w The way whose nodes define the bounding box.
+     * @param margin Distance in projected units to grow the box by on each side.
+     */
+    public void add(T item, Way w, double margin) {
+        add(item, Collections.singletonList(w), margin);
+    }
+
+    // Same as above, but with the bounding box containing all of the ways.
+    public void add(T item, Collection<Way> ways, double margin) {
+        double minEast = Double.POSITIVE_INFINITY, minNorth = Double.POSITIVE_INFINITY;
+        double maxEast = Double.NEGATIVE_INFINITY, maxNorth = Double.NEGATIVE_INFINITY;
+        for (Way w : ways) {
+            if (w == null) continue;
+            for (int i = 0; i < w.getNodesCount(); i++) {
+                EastNorth en = w.getNode(i).getEastNorth();
+                if (en == null) continue;
+                minEast = Math.min(minEast, en.east());
+                minNorth = Math.min(minNorth, en.north());
+                maxEast = Math.max(maxEast, en.east());
+                maxNorth = Math.max(maxNorth, en.north());
+            }
+        }
+        if (minEast > maxEast) return;
+        add(item, minEast - margin, minNorth - margin, maxEast + margin, maxNorth + margin);
+    }
+
+    public void remove(T item) {
+        Entry<T> e = _entries.remove(item);
+        if (e == null) return;
+        if (e.inTree) {
+            e.removed = true;
+            _removedFromTree++;
+        } else {
+            _pending.remove(e);
+        }
+    }
+
+    public void clear() {
+        _entries.clear();
+        _pending.clear();
+        _removedFromTree = 0;
+        _root = null;
+    }
+
+    public int size() { return _entries.size(); }
+
+    // The bounding box item was added with, or null if it isn't in the index.
+    public ProjectionBounds getBounds(T item) {
+        Entry<T> e = _entries.get(item);
+        return e == null ? null : new ProjectionBounds(e.minEast, e.minNorth, e.maxEast, e.maxNorth);
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Querying">
+
+    /**
+     * Finds every item whose bounding box overlaps the input bounds.
+     * @param bounds The area to search, usually the MapView's ProjectionBounds.
+     * @return The items, in no particular order.
+     */
+    public List<T> query(ProjectionBounds bounds) {
+        return query(bounds.minEast, bounds.minNorth, bounds.maxEast, bounds.maxNorth);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<T> query(double minEast, double minNorth, double maxEast, double maxNorth) {
+        if (_pending.size() > Math.max(32, _entries.size() / 8) || _removedFromTree > Math.max(32, _entries.size() / 4)) pack();
+
+        List<T> output = new ArrayList<>();
+        if (_root != null) {
+            List<Box> stack = new ArrayList<>();
+            stack.add(_root);
+            while (!stack.isEmpty()) {
+                Box b = stack.remove(stack.size() - 1);
+                if (!b.overlaps(minEast, minNorth, maxEast, maxNorth)) continue;
+                if (b instanceof Entry) {
+                    Entry<T> e = (Entry<T>) b;
+                    if (!e.removed) output.add(e.item);
+                } else {
+                    for (Box child : ((Branch) b).children) stack.add(child);
+                }
+            }
+        }
+        for (Entry<T> e : _pending) {
+            if (e.overlaps(minEast, minNorth, maxEast, maxNorth)) output.add(e.item);
+        }
+        return output;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Methods for Packing">
+
+    private void pack() {
+        List<Box> level = new ArrayList<>(_entries.values());
+        for (Box b : level) ((Entry<?>) b).inTree = true;
+        _pending.clear();
+        _removedFromTree = 0;
+
+        if (level.isEmpty()) {
+            _root = null;
+            return;
+        }
+
+        // Group boxes into parents until only the root is left.
+        while (level.size() > 1) level = packLevel(level);
+        _root = level.get(0);
+    }
+
+    private static List<Box> packLevel(List<Box> boxes) {
+        int numParents = (boxes.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int numSlices = (int) Math.ceil(Math.sqrt(numParents));
+        int sliceSize = numSlices * NODE_CAPACITY;
+
+        // Sort into vertical slices by east, then sort each slice by north and cut it into parents.
+        boxes.sort(Comparator.comparingDouble(Box::centerEast));
+        List<Box> output = new ArrayList<>(numParents);
+        for (int s = 0; s < boxes.size(); s += sliceSize) {
+            List<Box> slice = new ArrayList<>(boxes.subList(s, Math.min(s + sliceSize, boxes.size())));
+            slice.sort(Comparator.comparingDouble(Box::centerNorth));
+            for (int i = 0; i < slice.size(); i += NODE_CAPACITY) {
+                output.add(new Branch(slice.subList(i, Math.min(i + NODE_CAPACITY, slice.size())).toArray(new Box[0])));
+            }
+        }
+        return output;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Tree Classes">
+
+    private static class Box {
+        double minEast, minNorth, maxEast, maxNorth;
+
+        boolean overlaps(double minE, double minN, double maxE, double maxN) {
+            return minEast <= maxE && maxEast >= minE && minNorth <= maxN && maxNorth >= minN;
+        }
+
+        double centerEast() { return (minEast + maxEast) / 2; }
+        double centerNorth() { return (minNorth + maxNorth) / 2; }
+    }
+
+    private static class Entry<T> extends Box {
+        final T item;
+        boolean inTree = false;
+        boolean removed = false;
+
+        Entry(T item, double minEast, double minNorth, double maxEast, double maxNorth) {
+            this.item = item;
+            this.minEast = minEast;
+            this.minNorth = minNorth;
+            this.maxEast = maxEast;
+            this.maxNorth = maxNorth;
+        }
+    }
+
+    private static class Branch extends Box {
+        final Box[] children;
+
+        Branch(Box[] children) {
+            this.children = children;
+            minEast = Double.POSITIVE_INFINITY;
+            minNorth = Double.POSITIVE_INFINITY;
+            maxEast = Double.NEGATIVE_INFINITY;
+            maxNorth = Double.NEGATIVE_INFINITY;
+            for (Box b : children) {
+                minEast = Math.min(minEast, b.minEast);
+                minNorth = Math.min(minNorth, b.minNorth);
+                maxEast = Math.max(maxEast, b.maxEast);
+                maxNorth = Math.max(maxNorth, b.maxNorth);
+            }
+        }
+    }
+
+    // </editor-fold>
+}
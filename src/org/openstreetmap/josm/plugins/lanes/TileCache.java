@@ -0,0 +1,240 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * TileCache - keeps the rendered lanes in off-screen images, so repainting after a pan is mostly copying images.
+ *
+ * -> Off unless "lanes.tiles" is set.  At most "lanes.tiles.max" tiles are kept, least recently drawn go first.
+ * -> Tiles are TILE_SIZE pixels square on a grid fixed in EastNorth for each map scale, so zooming back to an
+ *    earlier scale reuses its tiles.
+ * -> Only tiles overlapping the areas RendererSet.takeChangedAreas() reports are thrown away after an edit.
+ *    A new RendererSet (after a full rebuild) or a new projection throws away everything.
+ * -> Exceptions from rendering roads aren't caught, same as LaneMappingMode.paint(), so a broken tile is never kept.
+ * -> Roads of selected ways are left out of the tiles and drawn live on top, since those are the ones being edited.
+ */
+
+final class TileCache {
+
+    private static final String PREF_ENABLED = "lanes.tiles";
+    private static final String PREF_MAX_TILES = "lanes.tiles.max";
+
+    private static final int TILE_SIZE = 256;
+    private static final double MARGIN = 100; // EastNorth units around a renderer's box that its drawing can reach.
+
+    private final LinkedHashMap<Key, BufferedImage> _tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private RendererSet _set = null; // The set the tiles were drawn from.
+    private Projection _projection = null; // The projection the tiles were drawn in.
+    private Set<RoadRenderer> _live = new HashSet<>(); // Roads left out of the tiles.
+
+    static boolean isEnabled() {
+        return Config.getPref().getBoolean(PREF_ENABLED, false);
+    }
+
+    void clear() {
+        _tiles.clear();
+        _set = null;
+        _projection = null;
+        _live = new HashSet<>();
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Keys">
+
+    private static final class Key {
+        private final long _scale;
+        private final long _x;
+        private final long _y;
+
+        private Key(double scale, long x, long y) {
+            _scale = Double.doubleToLongBits(scale);
+            _x = x;
+            _y = y;
+        }
+
+        private double span() { return TILE_SIZE * Double.longBitsToDouble(_scale); }
+
+        private boolean overlaps(ProjectionBounds b) {
+            double span = span();
+            return _x * span <= b.maxEast && (_x + 1) * span >= b.minEast &&
+                    _y * span <= b.maxNorth && (_y + 1) * span >= b.minNorth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return _scale == k._scale && _x == k._x && _y == k._y;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = (_scale * 31 + _x) * 31 + _y;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Painting">
+
+    /**
+     * Paints the lanes of set in view of mv, rendering whichever tiles aren't cached yet.
+     * Must be called on the event dispatch thread.
+     */
+    void paint(Graphics2D g, MapView mv, RendererSet set) {
+        if (set != _set || ProjectionRegistry.getProjection() != _projection) clear();
+        _set = set;
+        _projection = ProjectionRegistry.getProjection();
+        for (ProjectionBounds area : set.takeChangedAreas()) invalidate(area);
+        updateLive(set);
+
+        double scale = mv.getScale();
+        double span = TILE_SIZE * scale;
+        ProjectionBounds view = mv.getProjectionBounds();
+        long minX = (long) Math.floor(view.minEast / span), maxX = (long) Math.floor(view.maxEast / span);
+        long minY = (long) Math.floor(view.minNorth / span), maxY = (long) Math.floor(view.maxNorth / span);
+
+        // Render every missing tile in one pass, over the smallest block of tiles containing them.
+        long missMinX = Long.MAX_VALUE, missMaxX = Long.MIN_VALUE, missMinY = Long.MAX_VALUE, missMaxY = Long.MIN_VALUE;
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                if (_tiles.containsKey(new Key(scale, x, y))) continue;
+                missMinX = Math.min(missMinX, x);
+                missMaxX = Math.max(missMaxX, x);
+                missMinY = Math.min(missMinY, y);
+                missMaxY = Math.max(missMaxY, y);
+            }
+        }
+        if (missMinX <= missMaxX) renderTiles(mv, set, scale, missMinX, missMinY, missMaxX, missMaxY);
+
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                BufferedImage tile = _tiles.get(new Key(scale, x, y));
+                if (tile == null) continue;
+                Point2D corner = mv.getPoint2D(new EastNorth(x * span, (y + 1) * span));
+                g.drawImage(tile, (int) Math.round(corner.getX()), (int) Math.round(corner.getY()), null);
+            }
+        }
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Stroke stroke = g.getStroke();
+        Color color = g.getColor();
+        for (RoadRenderer r : _live) {
+            try {
+                r.render(g, DetailLevel.of(scale));
+            } finally {
+                g.setStroke(stroke);
+                g.setColor(color);
+            }
+        }
+        evict();
+    }
+
+    private void renderTiles(MapView mv, RendererSet set, double scale, long minX, long minY, long maxX, long maxY) {
+        double span = TILE_SIZE * scale;
+        int width = (int) (maxX - minX + 1) * TILE_SIZE;
+        int height = (int) (maxY - minY + 1) * TILE_SIZE;
+        Point2D corner = mv.getPoint2D(new EastNorth(minX * span, (maxY + 1) * span));
+
+        BufferedImage block = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = block.createGraphics();
+        try {
+            // Renderers draw in MapView pixels, so shift those onto the block.
+            g.translate(-Math.round(corner.getX()), -Math.round(corner.getY()));
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            ProjectionBounds bounds = new ProjectionBounds(minX * span - MARGIN, minY * span - MARGIN,
+                    (maxX + 1) * span + MARGIN, (maxY + 1) * span + MARGIN);
+
+            // Intersections first, same as LaneMappingMode.paint(), so the same one ends up on top where they overlap.
+            DetailLevel level = DetailLevel.of(scale);
+            if (level != DetailLevel.FAR) {
+                for (IntersectionRenderer i : set.intersectionsIn(bounds)) {
+                    try {
+                        i.render(g);
+                    } catch (Exception ignored) {}
+                }
+            }
+            for (RoadRenderer r : set.roadsIn(bounds)) {
+                if (!_live.contains(r)) r.render(g, level);
+            }
+        } finally {
+            g.dispose();
+        }
+
+        // Cut the block into tiles, copying so the block itself can be dropped.
+        for (long x = minX; x <= maxX; x++) {
+            for (long y = minY; y <= maxY; y++) {
+                Key key = new Key(scale, x, y);
+                if (_tiles.containsKey(key)) continue;
+                BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D tg = tile.createGraphics();
+                tg.drawImage(block.getSubimage((int) (x - minX) * TILE_SIZE, (int) (maxY - y) * TILE_SIZE, TILE_SIZE, TILE_SIZE), 0, 0, null);
+                tg.dispose();
+                _tiles.put(key, tile);
+            }
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Invalidation">
+
+    // Throws away every tile (at any scale) that anything drawn inside area could reach.
+    void invalidate(ProjectionBounds area) {
+        ProjectionBounds grown = new ProjectionBounds(area.minEast - MARGIN, area.minNorth - MARGIN,
+                area.maxEast + MARGIN, area.maxNorth + MARGIN);
+        _tiles.keySet().removeIf(k -> k.overlaps(grown));
+    }
+
+    // Roads going in or out of the live set have to be added to or removed from the tiles they touch.
+    private void updateLive(RendererSet set) {
+        Set<RoadRenderer> live = new HashSet<>();
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        if (ds != null) {
+            for (Way w : ds.getSelectedWays()) {
+                RoadRenderer r = set.wayIdToRSR.get(w.getUniqueId());
+                if (r != null) live.add(r);
+            }
+        }
+        if (live.equals(_live)) return;
+
+        List<RoadRenderer> changed = new ArrayList<>();
+        for (RoadRenderer r : live) if (!_live.contains(r)) changed.add(r);
+        for (RoadRenderer r : _live) if (!live.contains(r)) changed.add(r);
+        for (RoadRenderer r : changed) {
+            ProjectionBounds bounds = set.getBounds(r);
+            if (bounds != null) invalidate(bounds);
+        }
+        _live = live;
+    }
+
+    private void evict() {
+        int max = Math.max(0, Config.getPref().getInt(PREF_MAX_TILES, 256));
+        Iterator<Map.Entry<Key, BufferedImage>> it = _tiles.entrySet().iterator();
+        while (_tiles.size() > max && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // </editor-fold>
+}
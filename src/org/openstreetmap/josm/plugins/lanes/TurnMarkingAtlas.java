@@ -0,0 +1,132 @@
+package org.openstreetmap.josm.plugins.lanes;
+
+import org.openstreetmap.josm.spi.preferences.Config;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * TurnMarkingAtlas - turn arrows already scaled, rotated and combined, so drawing one is a single unscaled drawImage.
+ *
+ * -> A turn:lanes value is turned into a bit mask once (turnMask), and every arrow in the mask is drawn into one sprite,
+ *    so "left;through" costs the same as "left".
+ * -> Sprites are keyed by mask, low/high resolution, driving side, size in pixels and rotation rounded to
+ *    1/ANGLE_STEPS of a turn.  Least recently used sprites go first once they hold more than "lanes.markings.cache" pixels.
+ * -> Markings bigger than MAX_SIZE pixels (very close zoom) aren't cached, they're drawn directly like before.
+ */
+
+final class TurnMarkingAtlas {
+
+    private static final String PREF_MAX_PIXELS = "lanes.markings.cache";
+
+    private static final int ANGLE_STEPS = 128;
+    private static final int MAX_SIZE = 400;
+
+    // Values of turn:lanes with an arrow, in the order they are drawn.  Bit i of a mask is TURNS[i].
+    private static final String[] TURNS = {"left", "right", "slight_left", "slight_right", "through",
+            "merge_to_left", "merge_to_right", "reverse"};
+    private static final int REVERSE = 1 << 7;
+
+    private static final LinkedHashMap<Long, BufferedImage> _sprites = new LinkedHashMap<>(256, 0.75f, true);
+    private static long _pixels = 0;
+
+    private TurnMarkingAtlas() {}
+
+    // <editor-fold defaultstate="collapsed" desc="Drawing">
+
+    /**
+     * Finds the arrows in a value of turn:lanes for one lane, like "left;through".
+     * @return The mask to pass to draw(), 0 if none of the turns have an arrow.
+     */
+    static int turnMask(String turn) {
+        int mask = 0;
+        for (String t : turn.split(";")) {
+            for (int i = 0; i < TURNS.length; i++) {
+                if (TURNS[i].equals(t)) mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Draws every arrow in mask, size pixels square, centred on (x, y) and rotated clockwise by rotation radians.
+     */
+    static void draw(Graphics2D g, int mask, boolean lowRes, boolean rightHand, int x, int y, int size, double rotation) {
+        if (mask == 0 || size <= 0) return;
+        if (size > MAX_SIZE) {
+            g.rotate(rotation, x, y);
+            for (int i = 0; i < TURNS.length; i++) {
+                if ((mask & (1 << i)) != 0) g.drawImage(image(1 << i, lowRes, rightHand), x - size/2, y - size/2, size, size, null);
+            }
+            g.rotate(-rotation, x, y);
+            return;
+        }
+
+        long step = Math.floorMod(Math.round(rotation / (2 * Math.PI) * ANGLE_STEPS), ANGLE_STEPS);
+        if ((mask & REVERSE) == 0) rightHand = false; // Only the u-turn arrow depends on the driving side.
+        long key = (((((long) size * ANGLE_STEPS + step) << 8 | mask) << 1 | (lowRes ? 1 : 0)) << 1) | (rightHand ? 1 : 0);
+
+        BufferedImage sprite;
+        synchronized (_sprites) {
+            sprite = _sprites.get(key);
+        }
+        if (sprite == null) {
+            sprite = createSprite(mask, lowRes, rightHand, size, step * 2 * Math.PI / ANGLE_STEPS);
+            put(key, sprite);
+        }
+        g.drawImage(sprite, x - sprite.getWidth()/2, y - sprite.getHeight()/2, null);
+    }
+
+    private static BufferedImage createSprite(int mask, boolean lowRes, boolean rightHand, int size, double rotation) {
+        int side = (int) Math.ceil(size * Math.sqrt(2)) + 2; // Big enough for any rotation.
+        BufferedImage sprite = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = sprite.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.rotate(rotation, side / 2.0, side / 2.0);
+        for (int i = 0; i < TURNS.length; i++) {
+            if ((mask & (1 << i)) != 0) g.drawImage(image(1 << i, lowRes, rightHand), (side - size)/2, (side - size)/2, size, size, null);
+        }
+        g.dispose();
+        return sprite;
+    }
+
+    private static Image image(int turn, boolean lr, boolean rightHand) {
+        switch (turn) {
+            case 1: return lr ? UtilsRender.lr_left : UtilsRender.left;
+            case 1 << 1: return lr ? UtilsRender.lr_right : UtilsRender.right;
+            case 1 << 2: return lr ? UtilsRender.lr_slightLeft : UtilsRender.slightLeft;
+            case 1 << 3: return lr ? UtilsRender.lr_slightRight : UtilsRender.slightRight;
+            case 1 << 4: return lr ? UtilsRender.lr_through : UtilsRender.through;
+            case 1 << 5: return lr ? UtilsRender.lr_mergeLeft : UtilsRender.mergeLeft;
+            case 1 << 6: return lr ? UtilsRender.lr_mergeRight : UtilsRender.mergeRight;
+            default: return rightHand ? (lr ? UtilsRender.lr_uTurnLeft : UtilsRender.uTurnLeft) :
+                    (lr ? UtilsRender.lr_uTurnRight : UtilsRender.uTurnRight);
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Cache">
+
+    private static void put(long key, BufferedImage sprite) {
+        long max = Math.max(0, Config.getPref().getInt(PREF_MAX_PIXELS, 4000000));
+        synchronized (_sprites) {
+            BufferedImage old = _sprites.put(key, sprite);
+            if (old != null) _pixels -= (long) old.getWidth() * old.getHeight();
+            _pixels += (long) sprite.getWidth() * sprite.getHeight();
+
+            Iterator<Map.Entry<Long, BufferedImage>> it = _sprites.entrySet().iterator();
+            while (_pixels > max && it.hasNext()) {
+                BufferedImage evicted = it.next().getValue();
+                _pixels -= (long) evicted.getWidth() * evicted.getHeight();
+                it.remove();
+            }
+        }
+    }
+
+    // </editor-fold>
+}
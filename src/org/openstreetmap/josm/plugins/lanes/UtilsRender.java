@@ -3,11 +3,13 @@ package org.openstreetmap.josm.plugins.lanes;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MapView;
-import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.tools.ImageProvider;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class UtilsRender {
 
@@ -31,6 +33,11 @@ public class UtilsRender {
     public final static Color DEFAULT_UNTAGGED_ROADEDGE_COLOR = Color.WHITE;
     public final static Color DEFAULT_INVALID_COLOR = new Color(255, 40, 0);
 
+    // Colours of roads at DetailLevel.FAR, by number of lanes (0 for unknown, last one for that many or more).
+    public final static Color[] LANE_COUNT_COLORS = {DEFAULT_UNTAGGED_ASPHALT_COLOR, new Color(130, 130, 140),
+            new Color(70, 130, 190), new Color(60, 170, 110), new Color(230, 180, 40), new Color(230, 120, 30),
+            new Color(170, 60, 200)};
+
     public final static Image uTurnLeft = ImageProvider.get("roadmarkings", "u_turn_left").getImage();
     public final static Image uTurnRight = ImageProvider.get("roadmarkings", "u_turn_right").getImage();
     public final static Image left = ImageProvider.get("roadmarkings", "left").getImage();
@@ -96,36 +103,16 @@ public class UtilsRender {
                 float[] dash, float width, boolean isArea, boolean roundEnd, boolean simplify) {
         // Coordinate based rendering, not pixel based.
 
-        // Simplify path
-        if (simplify) {
-            final double minOffsetAllowed = mv.getDist100Pixel() / 200 / 40000000 * 360;
-            while (path.getNodesCount() > 2) {
-                int minId = -1;
-                double minOffset = Double.POSITIVE_INFINITY;
-                for (int i = 1; i < path.getNodesCount() - 1; i++) {
-                    double dist = UtilsSpatial.distPointLine(path.getNode(i).lon(), path.getNode(i - 1).lon(), path.getNode(i + 1).lon(),
-                            path.getNode(i).lat(), path.getNode(i - 1).lat(), path.getNode(i + 1).lat());
-                    if (dist < minOffset) {
-                        minOffset = dist;
-                        minId = i;
-                    }
-                }
-                if (minOffset < minOffsetAllowed) {
-                    List<Node> nodes = path.getNodes();
-                    nodes.remove(minId);
-                    path.setNodes(nodes);
-                } else {
-                    break;
-                }
-            }
-        }
+        // Simplify path (path itself is left alone)
+        if (simplify) path = simplify(path, mv.getDist100Pixel());
 
         // Generate path
         int[] xPoints = new int[path.getNodesCount()];
         int[] yPoints = new int[path.getNodesCount()];
         for (int i = 0; i < path.getNodesCount(); i++) {
-            xPoints[i] = (int) (mv.getPoint(path.getNode(i).getCoor()).getX() + 0.5);
-            yPoints[i] = (int) (mv.getPoint(path.getNode(i).getCoor()).getY() + 0.5);
+            Point p = mv.getPoint(path.getNode(i).getCoor());
+            xPoints[i] = (int) (p.getX() + 0.5);
+            yPoints[i] = (int) (p.getY() + 0.5);
         }
 
         // Generate style:
@@ -140,19 +127,40 @@ public class UtilsRender {
         } else {
             g.drawPolyline(xPoints, yPoints, xPoints.length);
         }
+    }
+
+    /**
+     * Drops the nodes of path that are less than half a pixel off the line between their neighbours.
+     * @param dist100Pixel Meters per 100 pixels, the zoom level the way will be drawn at.
+     * @return path if no nodes could be dropped, otherwise a new way with the nodes that are left.
+     */
+    public static Way simplify(Way path, double dist100Pixel) {
+        final double minOffsetAllowed = dist100Pixel / 200 / 40000000 * 360;
+        int n = path.getNodesCount();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = path.getNode(i).lon();
+            lats[i] = path.getNode(i).lat();
+        }
 
-        // THESE TWO LINES ARE FOR REMOVING THE WHITE BOX AROUND THE SCREEN... DON'T DELETE THESE
-        g.setColor(new Color(0, 0, 0, 0));
-        g.setStroke(GuiHelper.getCustomizedStroke("0"));
+        int[] kept = UtilsSpatial.simplify(lons, lats, minOffsetAllowed);
+        if (kept.length == n) return path;
+        List<Node> nodes = new ArrayList<>(kept.length);
+        for (int i : kept) nodes.add(path.getNode(i));
+        Way output = new Way();
+        output.setNodes(nodes);
+        return output;
     }
 
     public static Stroke getCustomStroke(double width, float[] dash, float offset, boolean roundEnd) {
         int cap = roundEnd ? BasicStroke.CAP_ROUND : BasicStroke.CAP_BUTT;
-        int join = BasicStroke.JOIN_ROUND;
         if (dash.length == 1) {
-            return new BasicStroke((float) width, cap, join, 1);
+            return getStroke(width, cap, 0, 0, 0);
+        } else if (dash.length == 2) {
+            return getStroke(width, cap, dash[0], dash[1], offset);
         } else {
-            return new BasicStroke((float) width, cap, join, 1,
+            return new BasicStroke((float) width, cap, BasicStroke.JOIN_ROUND, 1,
                     dash, offset);
         }
     }
@@ -204,33 +212,28 @@ public class UtilsRender {
                     offsetEnd - ((widthEnd-RENDERING_WIDTH_DIVIDER) / 2), DividerType.DASHED_FOR_LEFT, color, false);
             return;
         }
-        List<Way> parentAlignments = parent.getAlignments();
         g.setColor(color);
+        parent.getScreenLine(offsetStart, offsetEnd, DetailLevel.of(mv.getScale())).draw(g, mv);
+    }
+
+    // The parts of a line along a road, one for each section of road shared by the way.
+    // A way gets split into two sections if it has an intersection in the middle.
+    static List<Polyline> getRoadLineParts(RoadRenderer parent, double offsetStart, double offsetEnd) {
+        List<Polyline> parentAlignments = parent.getAlignmentLines();
+        double alignmentLength = parent.getAlignmentLine().getLength();
+        List<Polyline> output = new ArrayList<>(parentAlignments.size());
 
         for (int i = 0; i < parentAlignments.size(); i++) {
-            // runs for each section of road shared by the way.  A way gets split into two sections if it has an intersection in the middle.
-            double swt = (Math.max(parent.segmentStartPoints.get(i), 0)/parent.getAlignment().getLength());
+            double swt = (Math.max(parent.segmentStartPoints.get(i), 0)/alignmentLength);
             double startOffset = swt*offsetEnd + (1-swt)*offsetStart;
-            double ewt = (Math.min(parent.segmentEndPoints.get(i), parent.getAlignment().getLength())/parent.getAlignment().getLength());
+            double ewt = (Math.min(parent.segmentEndPoints.get(i), alignmentLength)/alignmentLength);
             double endOffset = ewt*offsetEnd + (1-ewt)*offsetStart;
-            Way alignment = UtilsSpatial.getParallel(parentAlignments.get(i), startOffset, endOffset, false,
+            Polyline part = UtilsSpatial.getParallel(parentAlignments.get(i), startOffset, endOffset, false,
                     parent.segmentStartPoints.get(i) < 0.1 ? parent.otherStartAngle : Double.NaN,
-                    parent.segmentEndPoints.get(i) > parent.getAlignment().getLength() - 0.1 ? parent.otherEndAngle : Double.NaN);
-//            UtilsRender.drawOnMap(g, mv, alignment, color, new float[] {1}, 0.125F, false, true, false);
-            int[] xPoints = new int[alignment.getNodesCount()];
-            int[] yPoints = new int[alignment.getNodesCount()];
-
-            for (int j = 0; j < alignment.getNodesCount(); j++) {
-                xPoints[j] = (int) (mv.getPoint(alignment.getNode(j).getCoor()).getX() + 0.5);
-                yPoints[j] = (int) (mv.getPoint(alignment.getNode(j).getCoor()).getY() + 0.5);
-            }
-
-            g.drawPolyline(xPoints, yPoints, xPoints.length);
+                    parent.segmentEndPoints.get(i) > alignmentLength - 0.1 ? parent.otherEndAngle : Double.NaN);
+            if (part != null) output.add(part);
         }
-
-        // THESE TWO LINES ARE FOR REMOVING THE WHITE BOX AROUND THE SCREEN... DON'T DELETE THESE
-        g.setColor(new Color(0, 0, 0, 0));
-        g.setStroke(GuiHelper.getCustomizedStroke("0"));
+        return output;
     }
 
     public static void renderRoadLinePopup(Graphics2D g, Point start, Point end, double bearing,
@@ -296,21 +299,90 @@ public class UtilsRender {
 
         g.setColor(color);
         g.drawLine(start.x, start.y, end.x, end.y);
-
-        // THESE TWO LINES ARE FOR REMOVING THE WHITE BOX AROUND THE SCREEN... DON'T DELETE THESE
-        g.setColor(new Color(0, 0, 0, 0));
-        g.setStroke(GuiHelper.getCustomizedStroke("0"));
     }
 
     public static Stroke getCustomStroke(double width, double metersDash, double metersGap, double offset) {
         if (metersGap <= 0.01 && metersGap >= -0.01) {
-            return new BasicStroke((float) width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1);
+            return getStroke(width, BasicStroke.CAP_BUTT, 0, 0, 0);
+        } else {
+            return getStroke(width, BasicStroke.CAP_BUTT, metersDash, metersGap, offset);
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Stroke Cache">
+
+    // Strokes are rounded to this fraction of a pixel, so every line drawn at one zoom level shares a few strokes.
+    private final static double STROKE_STEP = 1.0/8;
+    private final static int MAX_STROKES = 512;
+
+    private final static Map<StrokeKey, Stroke> _strokes = new LinkedHashMap<StrokeKey, Stroke>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StrokeKey, Stroke> eldest) { return size() > MAX_STROKES; }
+    };
+
+    private static final class StrokeKey {
+        private final int _width, _cap, _dash, _gap, _offset; // In STROKE_STEPs, _gap is 0 for solid lines.
+
+        private StrokeKey(int width, int cap, int dash, int gap, int offset) {
+            _width = width;
+            _cap = cap;
+            _dash = dash;
+            _gap = gap;
+            _offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StrokeKey)) return false;
+            StrokeKey k = (StrokeKey) o;
+            return _width == k._width && _cap == k._cap && _dash == k._dash && _gap == k._gap && _offset == k._offset;
+        }
+
+        @Override
+        public int hashCode() { return (((_width * 31 + _cap) * 31 + _dash) * 31 + _gap) * 31 + _offset; }
+    }
+
+    // Shared, immutable stroke with round joins.  A gap of 0 means a solid line (dash and offset are ignored).
+    private static Stroke getStroke(double width, int cap, double dash, double gap, double offset) {
+        int w = (int) Math.round(width / STROKE_STEP);
+        int d = 0, gp = (int) Math.round(gap / STROKE_STEP), o = 0;
+        if (gp > 0) {
+            d = Math.max(1, (int) Math.round(dash / STROKE_STEP));
+            o = (int) Math.round(offset / STROKE_STEP);
         } else {
-            return new BasicStroke((float) width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1,
-                    new float[] {(float) metersDash, (float) metersGap}, (float) offset);
+            gp = 0;
+        }
+        StrokeKey key = new StrokeKey(w, cap, d, gp, o);
+        synchronized (_strokes) {
+            Stroke stroke = _strokes.get(key);
+            if (stroke != null) return stroke;
+            stroke = gp == 0 ? new BasicStroke((float) (w * STROKE_STEP), cap, BasicStroke.JOIN_ROUND, 1) :
+                    new BasicStroke((float) (w * STROKE_STEP), cap, BasicStroke.JOIN_ROUND, 1,
+                            new float[] {(float) (d * STROKE_STEP), (float) (gp * STROKE_STEP)}, (float) (o * STROKE_STEP));
+            _strokes.put(key, stroke);
+            return stroke;
         }
     }
 
+    // </editor-fold>
+
+    public static Color laneCountColor(int lanes) {
+        return LANE_COUNT_COLORS[Math.max(0, Math.min(lanes, LANE_COUNT_COLORS.length - 1))];
+    }
+
+    public static Polygon polylineToPolygon(Polyline line, MapView mv) {
+        int[] xPoints = new int[line.size()];
+        int[] yPoints = new int[xPoints.length];
+
+        for (int i = 0; i < line.size(); i++) {
+            Point p = mv.getPoint(line.getCoor(i));
+            xPoints[i] = (int) (p.getX() + 0.5);
+            yPoints[i] = (int) (p.getY() + 0.5);
+        }
+
+        return new Polygon(xPoints, yPoints, xPoints.length);
+    }
+
     public static Polygon wayToPolygon(Way w, MapView mv) {
         int[] xPoints = new int[w.getNodesCount()];
         int[] yPoints = new int[xPoints.length];
@@ -3,9 +3,8 @@ package org.openstreetmap.josm.plugins.lanes;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
-import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.tools.Logging;
 
-import javax.swing.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -14,71 +13,20 @@ public class UtilsSpatial {
 
     // <editor-fold defaultstate=collapsed desc="Methods for Intersection Generation">
 
-    public static int numRoadsFromNode(Node n, LaneMappingMode m) { return numRoadsFromNode(n, m, false); }
-    public static int numRoadsFromNode(Node n, LaneMappingMode m, boolean stopAtThree) {
-        int total = 0;
-        for (Way w : n.getParentWays()) {
-            if (!m.wayIdToRSR.containsKey(w.getUniqueId())) continue;
-            for (int i = 0; i < w.getNodesCount(); i++) {
-                if (w.getNode(i).getUniqueId() == n.getUniqueId()) {
-                    total += (i==0 || i == w.getNodesCount()-1) ? 1 : 2;
-                }
-                if (stopAtThree && total > 2) return 3;
-            }
-        }
-        return total;
-    }
-
-    public static List<WayVector> getWaysFromNode(Node n, LaneMappingMode m) { return getWaysFromNode(n, m, Double.NaN); }
-    public static List<WayVector> getWaysFromNode(Node n, LaneMappingMode m, double bearingStart) {
-        List<WayVector> output = new ArrayList<>();
-
-        for (Way w : n.getParentWays()) {
-            if (!m.wayIdToRSR.containsKey(w.getUniqueId())) continue;
-            if (w.getNodesCount() < 2) continue;
-
-            for (int i = 0; i < w.getNodesCount(); i++) {
-                // For each node, if it's the pivot, add a WayVector to output for both directions.
-                if (w.getNode(i).getUniqueId() != n.getUniqueId()) continue;
-                if (i != 0) output.add(new WayVector(i, i-1, w));
-                if (i != w.getNodesCount()-1) output.add(new WayVector(i, i+1, w));
-            }
-        }
-
-        for (int i = 0; i < output.size()-1; i++) {
-            for (int j = 0; j < output.size()-1-i; j++) {
-                if (output.get(j).bearing() > output.get(j+1).bearing()) {
-                    WayVector temp = output.get(j);
-                    output.set(j, output.get(j+1));
-                    output.set(j+1, temp);
-                }
-            }
-        }
-        if (Double.isNaN(bearingStart)) return output;
-
-        bearingStart = bearingStart % (2*Math.PI);
-        for (int i = 0; i < output.size(); i++) {
-            if (output.get(0).bearing() < bearingStart+0.0000001) {
-                output.add(output.get(0));
-                output.remove(0);
-            } else {
-                break;
-            }
-        }
+    public static int numRoadsFromNode(Node n, RendererSet set) { return set.getAdjacency().numRoads(n); }
 
-        return output;
+    public static List<WayVector> getWaysFromNode(Node n, RendererSet set) { return getWaysFromNode(n, set, Double.NaN); }
+    public static List<WayVector> getWaysFromNode(Node n, RendererSet set, double bearingStart) {
+        return set.getAdjacency().getWayVectors(n, bearingStart);
     }
 
-    public static boolean nodeShouldBeIntersection(Node n, LaneMappingMode m) {
-        boolean roadsCorrect = numRoadsFromNode(n, m, true) > 2;
-        boolean anyRoundabouts = false;
-        for (Way w : n.getParentWays()) if (m.wayIdToRSR.containsKey(w.getUniqueId()) && w.hasTag("junction", "roundabout")) anyRoundabouts = true;
-        return roadsCorrect && !anyRoundabouts;
+    public static boolean nodeShouldBeIntersection(Node n, RendererSet set) {
+        return numRoadsFromNode(n, set) > 2 && !set.getAdjacency().hasRoundabout(n);
     }
 
-    public static Way lowResOutline(Node n, LaneMappingMode m) {
+    public static Way lowResOutline(Node n, RendererSet set) {
         // Returns a really low quality outline of the intersection, only used to know if two intersections overlap.
-        List<WayVector> wayVectors = getWaysFromNode(n, m);
+        List<WayVector> wayVectors = getWaysFromNode(n, set);
         List<Double> oneSideDistances = new ArrayList<>();
         List<Node> outline = new ArrayList<>();
 
@@ -87,22 +35,18 @@ public class UtilsSpatial {
                 // Get way at i right road edge (right going out from intersection, left going in)
                 WayVector ith = wayVectors.get(i);
                 if (ith == null) { throw new RuntimeException("ith is null"); }
-                RoadRenderer ithrr = m.wayIdToRSR.get(ith.getParent().getUniqueId());
+                RoadRenderer ithrr = set.wayIdToRSR.get(ith.getParent().getUniqueId());
                 if (ithrr == null) { throw new RuntimeException("ithrr is null"); }
-                Way rightSubPart = getSubPart(ith.isForward() ? ithrr.getEdge(-1, true) : ithrr.getEdge(-1, false),
-                        ith.isForward() ? Math.min(ith.getFrom(), ith.getTo()) : 0,
-                        ith.isForward() ? ithrr.getWay().getNodesCount() - 1 : Math.max(ith.getFrom(), ith.getTo()));
-                Way rightEdge = (ith.isForward() ? rightSubPart : reverseNodes(rightSubPart));
+                Polyline rightSubPart = ithrr.getEdgeLineNear(ith.getFrom(), ith.isForward(), ith.isForward());
+                Polyline rightEdge = (ith.isForward() ? rightSubPart : rightSubPart.reverse());
 
                 // Get way at i+1 left road edge (left going out from intersection, right going in)
                 WayVector ipoth = wayVectors.get((i == wayVectors.size() - 1) ? 0 : i + 1);
                 if (ipoth == null) { throw new RuntimeException("ipoth is null"); }
-                RoadRenderer ipothrr = m.wayIdToRSR.get(ipoth.getParent().getUniqueId());
+                RoadRenderer ipothrr = set.wayIdToRSR.get(ipoth.getParent().getUniqueId());
                 if (ipothrr == null) { throw new RuntimeException("ipothrr is null"); }
-                Way leftSubPart = getSubPart(ipoth.isForward() ? ipothrr.getEdge(-1, false) : ipothrr.getEdge(-1, true),
-                        ipoth.isForward() ? Math.min(ipoth.getFrom(), ipoth.getTo()) : 0,
-                        ipoth.isForward() ? ipothrr.getWay().getNodesCount() - 1 : Math.max(ipoth.getFrom(), ipoth.getTo()));
-                Way leftEdge = (ipoth.isForward() ? leftSubPart : reverseNodes(leftSubPart));
+                Polyline leftSubPart = ipothrr.getEdgeLineNear(ipoth.getFrom(), ipoth.isForward(), !ipoth.isForward());
+                Polyline leftEdge = (ipoth.isForward() ? leftSubPart : leftSubPart.reverse());
 
                 // Get the intersect of the lines to get info about how far into each way that intersect is.
                 double[] distances = new double[2];
@@ -121,12 +65,12 @@ public class UtilsSpatial {
             double dist = ith.getParent().hasTag("in_a_junction", "yes") ? 20 : 5;
             double distToUse = Math.max(distLeft, distRight) + dist; // Dist out from intersection
 
-            RoadRenderer rr = m.wayIdToRSR.get(ith.getParent().getUniqueId());
-            Way wayGoingOutFromNode = getSubPart(ith.getParent(),
+            RoadRenderer rr = set.wayIdToRSR.get(ith.getParent().getUniqueId());
+            Polyline wayGoingOutFromNode = Polyline.of(ith.getParent()).subPart(
                     ith.isForward() ? ith.getFrom() : 0,
                     ith.isForward() ? ith.getParent().getNodesCount()-1 : ith.getFrom());
-            if (!ith.isForward()) wayGoingOutFromNode = reverseNodes(wayGoingOutFromNode);
-            wayGoingOutFromNode = extendWay(wayGoingOutFromNode, false, distToUse + 1 /* buffer in case dist is longer than road */);
+            if (!ith.isForward()) wayGoingOutFromNode = wayGoingOutFromNode.reverse();
+            wayGoingOutFromNode = wayGoingOutFromNode.extend(false, distToUse + 1 /* buffer in case dist is longer than road */);
             double offset = Math.max(rr.getWidth(false), rr.getWidth(true))/2;
             outline.add(new Node(getParallelPoint(wayGoingOutFromNode, distToUse, offset)));
             outline.add(new Node(getParallelPoint(wayGoingOutFromNode, distToUse, -offset)));
@@ -142,12 +86,94 @@ public class UtilsSpatial {
     }
 
     public static LatLon bezier(double p, List<LatLon> l) {
-        // p goes from 0 to 1.  l is the list of points.
+        // p goes from 0 to 1.  l is the list of points.  De Casteljau, collapsing the points in place.
         if (l.size() == 1) return l.get(0);
         if (l.size() == 0) throw new RuntimeException("Zero length input cannot be used to make bezier curve.");
-        LatLon s = bezier(p, l.subList(0, l.size()-1));
-        LatLon e = bezier(p, l.subList(1, l.size()));
-        return new LatLon(s.lat()*(1-p) + e.lat()*p, s.lon()*(1-p) + e.lon()*p);
+        int n = l.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = l.get(i).lat();
+            lons[i] = l.get(i).lon();
+        }
+        for (int k = n-1; k > 0; k--) {
+            for (int i = 0; i < k; i++) {
+                lats[i] = lats[i]*(1-p) + lats[i+1]*p;
+                lons[i] = lons[i]*(1-p) + lons[i+1]*p;
+            }
+        }
+        return new LatLon(lats[0], lons[0]);
+    }
+
+    /**
+     * Flattens a bezier curve into points, only splitting it where it bends more than tolerance.
+     * @param l The control points, the first and last of which are the ends of the curve.
+     * @param tolerance Max distance in meters between the curve and the lines between the output points.
+     * @return Points along the curve, from the first control point to the last.
+     */
+    public static List<LatLon> bezierCurve(List<LatLon> l, double tolerance) {
+        if (l.size() == 0) throw new RuntimeException("Zero length input cannot be used to make bezier curve.");
+        int n = l.size();
+        List<LatLon> output = new ArrayList<>();
+        output.add(l.get(0));
+        if (n == 1) return output;
+
+        // Control points as packed lat/lon pairs.  Each piece on the stack is split in half until it's flat enough.
+        double[] first = new double[2*n];
+        for (int i = 0; i < n; i++) {
+            first[2*i] = l.get(i).lat();
+            first[2*i+1] = l.get(i).lon();
+        }
+        double metersPerLon = 111319.5 * Math.cos(Math.toRadians(first[0]));
+        List<double[]> pieces = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        pieces.add(first);
+        depths.add(0);
+        while (!pieces.isEmpty()) {
+            double[] piece = pieces.remove(pieces.size()-1);
+            int depth = depths.remove(depths.size()-1);
+            if (depth >= BEZIER_MAX_DEPTH || bezierIsFlat(piece, metersPerLon, tolerance)) {
+                output.add(new LatLon(piece[2*n-2], piece[2*n-1]));
+                continue;
+            }
+
+            // Split at the middle, the left half's control points are the first of each round, the right's the last.
+            double[] left = new double[2*n];
+            double[] right = new double[2*n];
+            double[] work = piece.clone();
+            for (int k = n-1; k >= 0; k--) {
+                left[2*(n-1-k)] = work[0];
+                left[2*(n-1-k)+1] = work[1];
+                right[2*k] = work[2*k];
+                right[2*k+1] = work[2*k+1];
+                for (int i = 0; i < k; i++) {
+                    work[2*i] = (work[2*i] + work[2*i+2]) / 2;
+                    work[2*i+1] = (work[2*i+1] + work[2*i+3]) / 2;
+                }
+            }
+            pieces.add(right);
+            depths.add(depth+1);
+            pieces.add(left);
+            depths.add(depth+1);
+        }
+        return output;
+    }
+
+    private static final int BEZIER_MAX_DEPTH = 7; // At most 128 lines per curve.
+
+    // The curve stays inside its control points, so it's flat once they are all near the line between its ends.
+    private static boolean bezierIsFlat(double[] piece, double metersPerLon, double tolerance) {
+        int last = piece.length/2 - 1;
+        double dx = (piece[2*last+1] - piece[1]) * metersPerLon;
+        double dy = (piece[2*last] - piece[0]) * 111319.5;
+        double lengthSquared = dx*dx + dy*dy;
+        for (int i = 1; i < last; i++) {
+            double px = (piece[2*i+1] - piece[1]) * metersPerLon;
+            double py = (piece[2*i] - piece[0]) * 111319.5;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px*dx + py*dy) / lengthSquared));
+            if (!(Math.hypot(px - t*dx, py - t*dy) <= tolerance)) return false;
+        }
+        return true;
     }
 
     /**
@@ -158,36 +184,56 @@ public class UtilsSpatial {
      */
     public static LatLon intersect(Way A, Way B, double[] distances, boolean trim, double distToExtendTrimBy,
                                    boolean useMotorwayTrimDist, boolean checkAngle) {
+        if (!overlaps(envelope(A), envelope(B))) return null; // Most calls miss, skip building the Polylines for those.
+        return intersect(Polyline.of(A), Polyline.of(B), distances, trim, distToExtendTrimBy, useMotorwayTrimDist, checkAngle);
+    }
+
+    static LatLon intersect(Polyline A, Polyline B, double[] distances, boolean trim, double distToExtendTrimBy,
+                            boolean useMotorwayTrimDist, boolean checkAngle) {
         // Returns a latlon at the first intersection, or null if no intersection.
         // Only checks first 5 way segments into each, since beyond that would be terrible for performance.
         // Only checks first 25 meters into each, since beyond that causes weird problems.
-        for (int i = 0; i < (trim ? 5 : Math.max(A.getNodesCount(), B.getNodesCount())); i++) {
+
+        // Only way segments whose box overlaps the box of the other way's checked segments can intersect it.
+        int segmentsA = Math.min(A.size() - 1, trim ? 5 : A.size());
+        int segmentsB = Math.min(B.size() - 1, trim ? 5 : B.size());
+        if (segmentsA <= 0 || segmentsB <= 0) return null;
+        double[] boxA = envelope(A, segmentsA);
+        double[] boxB = envelope(B, segmentsB);
+        if (!overlaps(boxA, boxB)) return null;
+        boolean[] nearA = segmentsOverlapping(A, segmentsA, boxB);
+        boolean[] nearB = segmentsOverlapping(B, segmentsB, boxA);
+        if (nearA == null || nearB == null) return null;
+
+        for (int i = 0; i < (trim ? 5 : Math.max(A.size(), B.size())); i++) {
             for (int a = 0; a <= i; a++) {
                 for (int b = 0; b <= i; b++) {
                     if (a < i && b < i) continue; // Don't check way segments that have already been checked.
-                    if (a > A.getNodesCount()-2 || b > B.getNodesCount()-2) continue; // Don't check where the nodes are out of bounds.
-                    if (trim && !useMotorwayTrimDist && (nodeIdToDist(A, a) > 40+distToExtendTrimBy || nodeIdToDist(B, b) > 40+distToExtendTrimBy)) continue; // Don't go more than 40 meters looking for intersects.
+                    if (a > A.size()-2 || b > B.size()-2) continue; // Don't check where the nodes are out of bounds.
+                    if (!nearA[a] || !nearB[b]) continue;
+                    if (trim && !useMotorwayTrimDist && (A.distanceTo(a) > 40+distToExtendTrimBy || B.distanceTo(b) > 40+distToExtendTrimBy)) continue; // Don't go more than 40 meters looking for intersects.
 
                     // a is index of start node in way segment in A to check.
                     // b is for way segment in B.
                     // If the way segments from A and B intersect, return the point of intersection.
-                    LatLon intersect = segmentIntersect(A.getNode(a).getCoor(), A.getNode(a+1).getCoor(),
-                            B.getNode(b).getCoor(), B.getNode(b+1).getCoor());
-                    double angA = A.getNode(a).getCoor().bearing(A.getNode(a+1).getCoor());
-                    double angB = B.getNode(b).getCoor().bearing(B.getNode(b+1).getCoor());
-                    if (intersect != null && (!checkAngle || (angA-angB)%(Math.PI*2) > Math.PI/2)) {
-                        distances[0] = getSubPart(A, 0, a).getLength();
-                        distances[1] = getSubPart(B, 0, b).getLength();
-                        double Alen = (A.getNode(a).getCoor().greatCircleDistance(A.getNode(a+1).getCoor()));
-                        double Blen = (B.getNode(b).getCoor().greatCircleDistance(B.getNode(b+1).getCoor()));
-
-                        double dist0ext = ((intersect.lon()-A.getNode(a).getCoor().lon()) / (A.getNode(a+1).getCoor().lon()-A.getNode(a).getCoor().lon()))*Alen;
-                        if (Double.isNaN(dist0ext)) dist0ext = ((intersect.lat()-A.getNode(a).getCoor().lat()) / (A.getNode(a+1).getCoor().lat()-A.getNode(a).getCoor().lat()))*Alen;
+                    LatLon intersect = segmentIntersect(A.lat(a), A.lon(a), A.lat(a+1), A.lon(a+1),
+                            B.lat(b), B.lon(b), B.lat(b+1), B.lon(b+1));
+                    if (intersect == null) continue;
+                    double angA = A.bearing(a, a+1);
+                    double angB = B.bearing(b, b+1);
+                    if (!checkAngle || (angA-angB)%(Math.PI*2) > Math.PI/2) {
+                        distances[0] = A.distanceTo(a);
+                        distances[1] = B.distanceTo(b);
+                        double Alen = A.segmentLength(a);
+                        double Blen = B.segmentLength(b);
+
+                        double dist0ext = ((intersect.lon()-A.lon(a)) / (A.lon(a+1)-A.lon(a)))*Alen;
+                        if (Double.isNaN(dist0ext)) dist0ext = ((intersect.lat()-A.lat(a)) / (A.lat(a+1)-A.lat(a)))*Alen;
                         if (Double.isNaN(dist0ext)) dist0ext = 0;
                         distances[0] += dist0ext;
 
-                        double dist1ext = ((intersect.lon()-B.getNode(b).getCoor().lon()) / (B.getNode(b+1).getCoor().lon()-B.getNode(b).getCoor().lon()))*Blen;
-                        if (Double.isNaN(dist1ext)) dist1ext = ((intersect.lat()-B.getNode(b).getCoor().lat()) / (B.getNode(b+1).getCoor().lat()-B.getNode(b).getCoor().lat()))*Blen;
+                        double dist1ext = ((intersect.lon()-B.lon(b)) / (B.lon(b+1)-B.lon(b)))*Blen;
+                        if (Double.isNaN(dist1ext)) dist1ext = ((intersect.lat()-B.lat(b)) / (B.lat(b+1)-B.lat(b)))*Blen;
                         if (Double.isNaN(dist1ext)) dist1ext = 0;
                         distances[1] += dist1ext;
                         return intersect;
@@ -198,82 +244,125 @@ public class UtilsSpatial {
         return null;
     }
 
+    // {minLat, minLon, maxLat, maxLon} of every node of w.  NaN (never rejected) if any node has no coordinates.
+    private static double[] envelope(Way w) {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < w.getNodesCount(); i++) {
+            Node n = w.getNode(i);
+            if (n == null || !n.isLatLonKnown()) return new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+            box[0] = Math.min(box[0], n.lat());
+            box[1] = Math.min(box[1], n.lon());
+            box[2] = Math.max(box[2], n.lat());
+            box[3] = Math.max(box[3], n.lon());
+        }
+        return box;
+    }
+
+    // Same as above, for the first (segments) way segments of p.
+    private static double[] envelope(Polyline p, int segments) {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i <= segments; i++) {
+            box[0] = Math.min(box[0], p.lat(i));
+            box[1] = Math.min(box[1], p.lon(i));
+            box[2] = Math.max(box[2], p.lat(i));
+            box[3] = Math.max(box[3], p.lon(i));
+        }
+        return box;
+    }
+
+    // False only if the boxes are known to be apart, so NaN boxes always overlap.
+    private static boolean overlaps(double[] a, double[] b) {
+        return !(a[2] < b[0] || b[2] < a[0] || a[3] < b[1] || b[3] < a[1]);
+    }
+
+    // Which of the first (segments) way segments of p have a box overlapping box, or null if none do.
+    private static boolean[] segmentsOverlapping(Polyline p, int segments, double[] box) {
+        boolean[] output = new boolean[segments];
+        boolean any = false;
+        for (int i = 0; i < segments; i++) {
+            output[i] = !(Math.max(p.lat(i), p.lat(i+1)) < box[0] || Math.min(p.lat(i), p.lat(i+1)) > box[2] ||
+                    Math.max(p.lon(i), p.lon(i+1)) < box[1] || Math.min(p.lon(i), p.lon(i+1)) > box[3]);
+            any |= output[i];
+        }
+        return any ? output : null;
+    }
+
     /**
-     * Finds point of intersection between two line segments.
-     * @param A1 Start point of line segment A
-     * @param A2 End point of line segment A
-     * @param B1 Start point of line segment B
-     * @param B2 End point of line segment B
+     * Finds point of intersection between two line segments, given as lat/lon of each endpoint.
      * @return The point if intersection if it exists, null if the line segments don't intersect.
      */
-    private static LatLon segmentIntersect(LatLon A1, LatLon A2, LatLon B1, LatLon B2) {
-        if (A1 == null || A2 == null || B1 == null | B2 == null) return null;
-
-        double leftA = Math.min(A1.lon(), A2.lon());
-        double rightA = Math.max(A1.lon(), A2.lon()) ;
-        double topA =  Math.max(A1.lat(), A2.lat());
-        double bottomA =  Math.min(A1.lat(), A2.lat());
-
-        double leftB = Math.min(B1.lon(), B2.lon());
-        double rightB = Math.max(B1.lon(), B2.lon());
-        double topB =  Math.max(B1.lat(), B2.lat());
-        double bottomB =  Math.min(B1.lat(), B2.lat());
+    private static LatLon segmentIntersect(double a1Lat, double a1Lon, double a2Lat, double a2Lon,
+                                           double b1Lat, double b1Lon, double b2Lat, double b2Lon) {
+        double leftA = Math.min(a1Lon, a2Lon);
+        double rightA = Math.max(a1Lon, a2Lon);
+        double topA = Math.max(a1Lat, a2Lat);
+        double bottomA = Math.min(a1Lat, a2Lat);
+
+        double leftB = Math.min(b1Lon, b2Lon);
+        double rightB = Math.max(b1Lon, b2Lon);
+        double topB = Math.max(b1Lat, b2Lat);
+        double bottomB = Math.min(b1Lat, b2Lat);
 
         // Get the determinant of a certain matrix used to solve the problem.
-        double det = (B2.lon() - B1.lon()) * (A1.lat() - A2.lat()) - (A1.lon() - A2.lon()) * (B2.lat() - B1.lat());
+        double det = (b2Lon - b1Lon) * (a1Lat - a2Lat) - (a1Lon - a2Lon) * (b2Lat - b1Lat);
 
         // Check if lines are parallel.  If so, assume no intersect.
         if (Math.abs(det) < 0.0000000000001 /* please don't reduce num zeros */) return null;
 
         // Get how far into A the intersect is (0 is beginning, 1 is end, anything outside isn't an intersect).
-        double ap = ((B1.lat() - B2.lat()) * (A1.lon() - B1.lon()) + (A1.lat() - B1.lat()) * (B2.lon() - B1.lon())) / det;
+        double ap = ((b1Lat - b2Lat) * (a1Lon - b1Lon) + (a1Lat - b1Lat) * (b2Lon - b1Lon)) / det;
 
         // Use percentage through segment A to find the point.
-        LatLon o = new LatLon(ap * A2.lat() + (1 - ap) * A1.lat(), ap * A2.lon() + (1 - ap) * A1.lon());
+        double oLat = ap * a2Lat + (1 - ap) * a1Lat;
+        double oLon = ap * a2Lon + (1 - ap) * a1Lon;
 
         // If the intersect is outside of the way segment, return null.
-        if (o.lon() < leftA || o.lon() > rightA || o.lon() < leftB || o.lon() > rightB || o.lat() > topA || o.lat() > topB || o.lat() < bottomA || o.lat() < bottomB) {
+        if (oLon < leftA || oLon > rightA || oLon < leftB || oLon > rightB || oLat > topA || oLat > topB || oLat < bottomA || oLat < bottomB) {
             return null;
         }
 
         // Return the valid point.
-        return o;
+        return new LatLon(oLat, oLon);
     }
 
     public static Way glue(Way a, Way b, double extension) {
-        // Glue first half of a to second half of b.  Split into halves at intersect.
-        double[] distances = new double[2];
         if (b == null || b.getNodesCount() < 2)return (a == null || a.getNodesCount() < 2) ? null : a;
         if (a == null || a.getNodesCount() < 2) return b;
-        LatLon intersect = intersect(reverseNodes(a), b, distances, false, 0, false, false);
+        Polyline output = glue(Polyline.of(a), Polyline.of(b), extension);
+        return output == null ? null : output.toWay();
+    }
+
+    static Polyline glue(Polyline a, Polyline b, double extension) {
+        // Glue first half of a to second half of b.  Split into halves at intersect.
+        double[] distances = new double[2];
+        LatLon intersect = intersect(a.reverse(), b, distances, false, 0, false, false);
         double extensionUsed = 0;
         if (intersect == null) {
             try {
-                intersect = intersect(extendWay(reverseNodes(a), true, extension),
-                        extendWay(b, true, extension), distances, false, 0, false, false);
+                intersect = intersect(a.reverse().extend(true, extension),
+                        b.extend(true, extension), distances, false, 0, false, false);
                 extensionUsed = extension;
             } catch (Exception e) {
                 return null;
             }
         }
 
-        List<Node> nodes = new ArrayList<>();
-        Way output = new Way();
-
-        Way firstHalfA = getSubPart(a, 0.0, a.getLength() + extensionUsed - distances[0]);
-        Way secondHalfB = getSubPart(b, distances[1]-extensionUsed, b.getLength());
+        Polyline firstHalfA = getSubPart(a, 0.0, a.getLength() + extensionUsed - distances[0]);
+        Polyline secondHalfB = getSubPart(b, distances[1]-extensionUsed, b.getLength());
 
+        double[] coords;
         if (intersect == null || firstHalfA == null || secondHalfB == null) {
-            nodes.addAll(a.getNodes());
-            nodes.addAll(b.getNodes());
+            coords = new double[2 * (a.size() + b.size())];
+            for (int i = 0; i < a.size(); i++) { coords[2*i] = a.lat(i); coords[2*i+1] = a.lon(i); }
+            for (int i = 0; i < b.size(); i++) { coords[2*(a.size()+i)] = b.lat(i); coords[2*(a.size()+i)+1] = b.lon(i); }
         } else {
-            nodes.addAll(firstHalfA.getNodes());
-            if (firstHalfA.getNodesCount() != 0 && secondHalfB.getNodesCount() != 0) nodes.remove(nodes.size()-1);
-            nodes.addAll(secondHalfB.getNodes());
+            // Drop the last point of the first half, it's the same as the first point of the second half.
+            int fromA = firstHalfA.size() != 0 && secondHalfB.size() != 0 ? firstHalfA.size() - 1 : firstHalfA.size();
+            coords = new double[2 * (fromA + secondHalfB.size())];
+            for (int i = 0; i < fromA; i++) { coords[2*i] = firstHalfA.lat(i); coords[2*i+1] = firstHalfA.lon(i); }
+            for (int i = 0; i < secondHalfB.size(); i++) { coords[2*(fromA+i)] = secondHalfB.lat(i); coords[2*(fromA+i)+1] = secondHalfB.lon(i); }
         }
-
-        output.setNodes(nodes);
-        return output;
+        return Polyline.of(coords);
     }
 
     // </editor-fold>
@@ -281,32 +370,28 @@ public class UtilsSpatial {
     // <editor-fold defaultstate="collapsed" desc="Methods for Finding Parallel Ways">
 
     public static Way getParallel(Way way, double offsetStart, double offsetEnd, boolean useAngleOffset, double angStart, double angEnd) {
-        LatLon[] points = new LatLon[way.getNodesCount()];
-        double[] distanceIntoWay = new double[way.getNodesCount()];
-        double distanceOfWay = 0;
-        for (int i = 0; i < points.length; i++) {
-            points[i] = way.getNode(i).getCoor();
-            if (i != 0) {
-                try {
-                    distanceOfWay += points[i - 1].greatCircleDistance(points[i]);
-                } catch (Exception ignored) {}
-            }
-            distanceIntoWay[i] = distanceOfWay;
+        Polyline line;
+        try {
+            line = Polyline.of(way);
+        } catch (NullPointerException e) {
+            return way;
         }
+        Polyline output = getParallel(line, offsetStart, offsetEnd, useAngleOffset, angStart, angEnd);
+        return output == null ? null : output.toWay();
+    }
+
+    static Polyline getParallel(Polyline line, double offsetStart, double offsetEnd, boolean useAngleOffset, double angStart, double angEnd) {
+        int numPoints = line.size();
+        if (numPoints < 2) return null;
+        double distanceOfWay = line.getLength();
 
         // Get angle offset:
         double angleOffset = (useAngleOffset ? -1 : 0) * Math.asin((offsetEnd-offsetStart)/distanceOfWay);
 
-        LatLon[] output = new LatLon[points.length];
+        double[] output = new double[2 * numPoints];
 
         // Deal with first node
-        double angle;
-        if (points.length < 2) return null;
-        try {
-            angle = points[0].bearing(points[1]);
-        } catch (NullPointerException e) {
-            return way;
-        }
+        double angle = line.bearing(0, 1);
 
         double angleWithoutOtherWay = (angle - (Math.PI / 2.0)) % (2*Math.PI);
         double angleToUse = angleWithoutOtherWay;
@@ -321,34 +406,27 @@ public class UtilsSpatial {
             }
         }
 
-        output[0] = getLatLonRelative(points[0], angleToUse, offsetStart*multiplierToUse);
+        putRelative(output, line, 0, angleToUse, offsetStart*multiplierToUse);
 
         // Deal with all other nodes
-        for (int i = 1; i < points.length - 1; i++) {
-            double angleToPrevPoint;
-            double angleToNextPoint;
-            try {
-                // If points are at same location, return the way, since getting a parallel way would be hard.
-                angleToPrevPoint = points[i].bearing(points[i - 1]);
-                angleToNextPoint = points[i].bearing(points[i + 1]);
-            } catch (NullPointerException e) {
-                return way;
-            }
+        for (int i = 1; i < numPoints - 1; i++) {
+            double angleToPrevPoint = line.bearing(i, i - 1);
+            double angleToNextPoint = line.bearing(i, i + 1);
             double angleBetween = (angleToNextPoint + angleToPrevPoint) / 2;
             if (angleToNextPoint < angleToPrevPoint) angleBetween = (angleBetween + Math.PI) % (Math.PI * 2.0);
 
-            double amountThrough = distanceIntoWay[i]/distanceOfWay;
+            double amountThrough = line.distanceTo(i)/distanceOfWay;
             double offsetAtNode = offsetStart * (1 - amountThrough) + offsetEnd * amountThrough;
 
             double anglePrevToNormal = (angleBetween - angleToNextPoint) % (2 * Math.PI);
 
             double offset = offsetAtNode / Math.abs(Math.sin(anglePrevToNormal));
 
-            output[i] = getLatLonRelative(points[i], angleBetween + angleOffset, offset);
+            putRelative(output, line, i, angleBetween + angleOffset, offset);
         }
 
         // Deal with last node
-        double angleToPrev = points[points.length - 1].bearing(points[points.length - 2]);
+        double angleToPrev = line.bearing(numPoints - 1, numPoints - 2);
 
         angleWithoutOtherWay = (angleToPrev + (Math.PI / 2.0)) % (2*Math.PI);
         angleToUse = angleWithoutOtherWay + angleOffset;
@@ -362,18 +440,36 @@ public class UtilsSpatial {
             }
         }
 
-        output[points.length - 1] = getLatLonRelative(points[points.length - 1], angleToUse, offsetEnd*multiplierToUse);
-
+        putRelative(output, line, numPoints - 1, angleToUse, offsetEnd*multiplierToUse);
 
+        return Polyline.of(output);
+    }
 
-        // Convert to way format and return
-        List<Node> outputNodes = new ArrayList<>();
-        for (LatLon ll : output) outputNodes.add(new Node(ll));
-
-        Way outputWay = new Way();
-        outputWay.setNodes(outputNodes);
+    /**
+     * The points from to to (inclusive) of getParallel(line, offsetStart, offsetEnd, false, angStart, angEnd),
+     * without calculating the rest of them.
+     */
+    static Polyline getParallel(Polyline line, int from, int to, double offsetStart, double offsetEnd, double angStart, double angEnd) {
+        int n = line.size();
+        from = Math.max(from, 0);
+        to = Math.min(to, n-1);
+        if (from == 0 && to == n-1) return getParallel(line, offsetStart, offsetEnd, false, angStart, angEnd);
+
+        // One more point each side, so the points at the edges of the window are corners just like in the whole parallel.
+        int first = Math.max(from-1, 0);
+        int last = Math.min(to+1, n-1);
+        double length = line.getLength();
+        double firstOffset = offsetStart + (offsetEnd - offsetStart) * line.distanceTo(first) / length;
+        double lastOffset = offsetStart + (offsetEnd - offsetStart) * line.distanceTo(last) / length;
+        Polyline output = getParallel(line.subPart(first, last), firstOffset, lastOffset, false,
+                first == 0 ? angStart : Double.NaN, last == n-1 ? angEnd : Double.NaN);
+        return output == null ? null : output.subPart(from - first, to - first);
+    }
 
-        return outputWay;
+    // Same as getLatLonRelative, from point i of line, written to point i of output.
+    private static void putRelative(double[] output, Polyline line, int i, double bearing, double numMeters) {
+        output[2*i] = line.lat(i) + Math.cos(bearing) * numMeters / 111319.5;
+        output[2*i+1] = line.lon(i) + Math.sin(bearing) * numMeters / line.metersPerDegreeLon(i);
     }
 
     private static double getAngleAverage(double a, double b) {
@@ -405,13 +501,105 @@ public class UtilsSpatial {
         return a/b;
     }
 
-    public static double bearingAt(Way w, double metersIn) {
-        double distSoFar = 0;
-        for (int i = 1; i < w.getNodesCount(); i++) {
-            distSoFar += w.getNode(i-1).getCoor().greatCircleDistance(w.getNode(i).getCoor());
-            if (distSoFar >= metersIn || distSoFar + 0.01 > w.getLength()) return w.getNode(i-1).getCoor().bearing(w.getNode(i).getCoor());
+    /**
+     * Repeatedly drops the interior point closest to the line through its two neighbours, until every point left is
+     * at least tolerance from that line.  The closest point is kept in a heap, so this is O(n log n).
+     * @param x Point x coordinates (longitudes), with y, in the same units as tolerance.
+     * @return The indices of the points kept, in order, always including the first and last.
+     */
+    public static int[] simplify(double[] x, double[] y, double tolerance) {
+        int n = x.length;
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        double[] key = new double[n];
+        int[] heap = new int[n];
+        int[] pos = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+        for (int i = 1; i < n - 1; i++) {
+            key[i] = offsetFromNeighbours(x, y, i - 1, i, i + 1);
+            heap[size] = i;
+            pos[i] = size++;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(heap, pos, key, i, size);
+
+        int kept = n;
+        while (size > 0 && key[heap[0]] < tolerance) {
+            int i = heap[0];
+            heap[0] = heap[--size];
+            pos[heap[0]] = 0;
+            siftDown(heap, pos, key, 0, size);
+            pos[i] = -1;
+            kept--;
+
+            // Unlink i, then its neighbours are measured against their new neighbours.
+            int p = prev[i], q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            if (p > 0) updateKey(heap, pos, key, p, offsetFromNeighbours(x, y, prev[p], p, q), size);
+            if (q < n - 1) updateKey(heap, pos, key, q, offsetFromNeighbours(x, y, p, q, next[q]), size);
+        }
+
+        int[] output = new int[kept];
+        for (int i = 0, j = 0; i < n && j < kept; i = next[i]) output[j++] = i;
+        return output;
+    }
+
+    // Points whose neighbours are on top of each other can't be measured, so they are never dropped.
+    private static double offsetFromNeighbours(double[] x, double[] y, int a, int i, int b) {
+        double d = distPointLine(x[i], x[a], x[b], y[i], y[a], y[b]);
+        return Double.isNaN(d) ? Double.POSITIVE_INFINITY : d;
+    }
+
+    private static void updateKey(int[] heap, int[] pos, double[] key, int i, double value, int size) {
+        double old = key[i];
+        key[i] = value;
+        if (value < old) {
+            siftUp(heap, pos, key, pos[i]);
+        } else {
+            siftDown(heap, pos, key, pos[i], size);
         }
-        return getWayBearing(w); // Backup, shouldn't ever run.
+    }
+
+    private static void siftUp(int[] heap, int[] pos, double[] key, int at) {
+        int item = heap[at];
+        while (at > 0) {
+            int parent = (at - 1) / 2;
+            if (key[heap[parent]] <= key[item]) break;
+            heap[at] = heap[parent];
+            pos[heap[at]] = at;
+            at = parent;
+        }
+        heap[at] = item;
+        pos[item] = at;
+    }
+
+    private static void siftDown(int[] heap, int[] pos, double[] key, int at, int size) {
+        int item = heap[at];
+        while (2 * at + 1 < size) {
+            int child = 2 * at + 1;
+            if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) child++;
+            if (key[item] <= key[heap[child]]) break;
+            heap[at] = heap[child];
+            pos[heap[at]] = at;
+            at = child;
+        }
+        heap[at] = item;
+        pos[item] = at;
+    }
+
+    public static double bearingAt(Way w, double metersIn) {
+        if (w.getNodesCount() < 2) return getWayBearing(w); // Backup, shouldn't ever run.
+        return bearingAt(Polyline.of(w), metersIn);
+    }
+
+    // Bearing of the segment metersIn along w, or of the last segment if w isn't that long.
+    static double bearingAt(Polyline w, double metersIn) {
+        int i = Math.min(w.indexAfter(Math.nextDown(metersIn), 1), w.indexAfter(w.getLength() - 0.01, 1));
+        return w.bearing(i-1, i);
     }
 
     public static LatLon getLatLonRelative(LatLon from, double bearing, double numMeters) {
@@ -427,118 +615,107 @@ public class UtilsSpatial {
     }
 
     public static Way getSubPart(Way w, double startMeters, double endMeters) {
-        if (startMeters >= w.getLength() || endMeters <= 0) return new Way();
-        List<Node> newNodes = new ArrayList<>();
-        double distSoFar = 0;
+        Polyline part = getSubPart(Polyline.of(w), startMeters, endMeters);
+        if (part == null) return null;
+        return part.size() == 0 ? new Way() : part.toWay();
+    }
+
+    // Returns an empty polyline if the range is entirely outside of w, or null if it's too short to have two points.
+    static Polyline getSubPart(Polyline w, double startMeters, double endMeters) {
+        if (startMeters >= w.getLength() || endMeters <= 0) return Polyline.of(new double[0]);
+        double[] newCoords = new double[2 * (w.size() + 1)];
+        int numNew = 0;
         int nextNode = -1;
         if (startMeters <= 0.01) {
-            newNodes.add(w.getNode(0));
+            newCoords[0] = w.lat(0);
+            newCoords[1] = w.lon(0);
+            numNew = 1;
             nextNode = 1;
         } else {
-            for (int i = 1; i < w.getNodesCount(); i++) {
-                // Look for start up to the node at pos i, including node at pos i.
-                double distThis = w.getNode(i - 1).getCoor().greatCircleDistance(w.getNode(i).getCoor());
-                distSoFar += distThis;
-
-                if (startMeters < distSoFar-0.01) {
+            // The start is on the segment ending at the first node more than startMeters - 0.01 in.
+            int i = w.indexAfter(startMeters - 0.01, 1);
+            if (i < w.size()) {
+                if (startMeters < w.distanceTo(i)-0.01) {
                     // Find place and set next node as i
-                    double distBack = distSoFar-startMeters;
-                    newNodes.add(new Node(new LatLon(distBack/distThis*w.getNode(i-1).lat() + (1-distBack/distThis)*w.getNode(i).lat(),
-                            distBack/distThis*w.getNode(i-1).lon() + (1-distBack/distThis)*w.getNode(i).lon())));
+                    putBetween(newCoords, 0, w, i, w.distanceTo(i)-startMeters);
                     nextNode = i;
-                    distSoFar -= distThis;
-                    break;
-                } else if (startMeters < distSoFar+0.01) {
+                } else {
                     // add node i and set next as i+1.
-                    newNodes.add(w.getNode(i));
+                    newCoords[0] = w.lat(i);
+                    newCoords[1] = w.lon(i);
                     nextNode = i+1;
-                    break;
                 }
+                numNew = 1;
             }
         }
 
-        if (nextNode == -1) JOptionPane.showMessageDialog(MainApplication.getMainFrame(),
-                "id: " + w.getUniqueId() + ", nodes: " + w.getNodesCount() + ", startMeters: " + startMeters + ", disSoFar:" + distSoFar);
-
-        for (int i = nextNode; i < w.getNodesCount(); i++) {
-            // Look for start up to the node at pos i, including node at pos i.
-            double distThis = w.getNode(i - 1).getCoor().greatCircleDistance(w.getNode(i).getCoor());
-            distSoFar += distThis;
-            if (endMeters < distSoFar-0.01) {
-                // Find place and set next node as i
-                double distBack = distSoFar-endMeters;
-                newNodes.add(new Node(new LatLon(distBack/distThis*w.getNode(i-1).lat() + (1-distBack/distThis)*w.getNode(i).lat(),
-                        distBack/distThis*w.getNode(i-1).lon() + (1-distBack/distThis)*w.getNode(i).lon())));
-                break;
-            } else if (endMeters < distSoFar+0.01) {
-                // add node i and set next as i+1.
-                newNodes.add(w.getNode(i));
-                break;
-            }
+        if (nextNode == -1) Logging.warn("Lanes: no sub part starting at " + startMeters + " m of a line with "
+                + w.size() + " nodes, length: " + w.getLength());
 
-            newNodes.add(w.getNode(i));
+        // Every node before the end is kept, then the end is added the same way as the start.
+        int end = w.indexAfter(endMeters - 0.01, nextNode);
+        for (int i = nextNode; i < end; i++) {
+            newCoords[2*numNew] = w.lat(i);
+            newCoords[2*numNew+1] = w.lon(i);
+            numNew++;
         }
-        if (newNodes.size() >= 2) {
-            Way output = new Way();
-            output.setNodes(newNodes);
-            return output;
-        } else {
-            return null;
+        if (end < w.size()) {
+            if (endMeters < w.distanceTo(end)-0.01) {
+                putBetween(newCoords, numNew, w, end, w.distanceTo(end)-endMeters);
+            } else {
+                newCoords[2*numNew] = w.lat(end);
+                newCoords[2*numNew+1] = w.lon(end);
+            }
+            numNew++;
         }
+        return numNew >= 2 ? Polyline.of(Arrays.copyOf(newCoords, 2*numNew)) : null;
+    }
+
+    // Writes the point distBack meters before point i of w (on the segment from i-1 to i) to position pos of output.
+    private static void putBetween(double[] output, int pos, Polyline w, int i, double distBack) {
+        double distThis = w.segmentLength(i-1);
+        output[2*pos] = distBack/distThis*w.lat(i-1) + (1-distBack/distThis)*w.lat(i);
+        output[2*pos+1] = distBack/distThis*w.lon(i-1) + (1-distBack/distThis)*w.lon(i);
     }
 
     public static Node getPointAt(Way w, double metersIn) {
-        double distSoFar = 0;
-        if (metersIn <= 0.01) {
-            return w.getNode(0);
-        } else {
-            for (int i = 1; i < w.getNodesCount(); i++) {
-                double distThis = w.getNode(i - 1).getCoor().greatCircleDistance(w.getNode(i).getCoor());
-                distSoFar += distThis;
-
-                if (metersIn < distSoFar-0.01) {
-                    // Return node between i-1 and i.
-                    double distBack = distSoFar-metersIn;
-                    return new Node(new LatLon(distBack/distThis*w.getNode(i-1).lat() + (1-distBack/distThis)*w.getNode(i).lat(),
-                            distBack/distThis*w.getNode(i-1).lon() + (1-distBack/distThis)*w.getNode(i).lon()));
-                } else if (metersIn < distSoFar+0.01) {
-                    // return ith node.
-                    return w.getNode(i);
-                }
-            }
-        }
-        return null;
+        if (metersIn <= 0.01) return w.getNode(0);
+        Polyline line = Polyline.of(w);
+        int i = line.indexAfter(metersIn - 0.01, 1);
+        if (i >= line.size()) return null;
+        if (metersIn < line.distanceTo(i)-0.01) return new Node(getPointAt(line, metersIn));
+        return w.getNode(i);
+    }
+
+    // The point metersIn along w, or null if w isn't that long.
+    static LatLon getPointAt(Polyline w, double metersIn) {
+        if (metersIn <= 0.01) return w.getCoor(0);
+        int i = w.indexAfter(metersIn - 0.01, 1);
+        if (i >= w.size()) return null;
+        if (metersIn >= w.distanceTo(i)-0.01) return w.getCoor(i);
+
+        // Return point between i-1 and i.
+        double[] point = new double[2];
+        putBetween(point, 0, w, i, w.distanceTo(i)-metersIn);
+        return new LatLon(point[0], point[1]);
     }
 
     public static LatLon getParallelPoint(Way w, double dist, double offsetToLeft) {
+        return getParallelPoint(Polyline.of(w), dist, offsetToLeft);
+    }
+
+    static LatLon getParallelPoint(Polyline w, double dist, double offsetToLeft) {
         if (dist < 0) dist = 0;
         if (dist > w.getLength()) dist = w.getLength();
 
-        double distSoFar = 0;
         if (dist <= 0.01) {
-            double bearing = w.getNode(0).getCoor().bearing(w.getNode(1).getCoor());
-            return getLatLonRelative(w.getNode(0).getCoor(), bearing-Math.PI/2, offsetToLeft);
-        } else {
-            for (int i = 1; i < w.getNodesCount(); i++) {
-                double distThis = w.getNode(i - 1).getCoor().greatCircleDistance(w.getNode(i).getCoor());
-                distSoFar += distThis;
-                double bearing = w.getNode(i-1).getCoor().bearing(w.getNode(i).getCoor());
-
-                if (dist < distSoFar-0.01) {
-                    // Return parallel from LatLon between i-1 and i.
-                    double distBack = distSoFar-dist;
-
-                    LatLon from = new LatLon(distBack/distThis*w.getNode(i-1).lat() + (1-distBack/distThis)*w.getNode(i).lat(),
-                            distBack/distThis*w.getNode(i-1).lon() + (1-distBack/distThis)*w.getNode(i).lon());
-                    return getLatLonRelative(from, bearing-Math.PI/2, offsetToLeft);
-                } else if (dist < distSoFar+0.01) {
-                    // return parallel from ith node.
-                    return getLatLonRelative(w.getNode(i).getCoor(), bearing-Math.PI/2, offsetToLeft);
-                }
-            }
+            return getLatLonRelative(w.getCoor(0), w.bearing(0, 1)-Math.PI/2, offsetToLeft);
+        }
+        int i = w.indexAfter(dist - 0.01, 1);
+        if (i >= w.size()) {
+            throw new RuntimeException("Shouldn't ever reach end.  Length of way: " + w.getLength() + ", dist of parallel: " + dist);
         }
-        throw new RuntimeException("Shouldn't ever reach end.  Length of way: " + w.getLength() + ", distSoFar: " + distSoFar + ", dist of parallel: " + dist);
-//        return null;
+        return getLatLonRelative(getPointAt(w, dist), w.bearing(i-1, i)-Math.PI/2, offsetToLeft);
     }
 
     public static Way getSubPart(Way w, int startNode, int endNode) {
@@ -597,6 +774,10 @@ public class UtilsSpatial {
         return output;
     }
 
+    static double nodeIdToDist(Polyline w, int id) {
+        return w.distanceTo(id);
+    }
+
     public static double nodeIdToDist(Way w, int id) {
         double distSoFar = 0.0;
         for (int i = 0; i < id; i++) {